@@ -1,10 +1,15 @@
 package application;
 
 import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import database.*;
 import guis.*;
 import objects.User;
+import objects.LotUpdate;
 import objects.ParkingLot;
 //import java.io.BufferedReader;
 //import java.io.FileReader;
@@ -13,8 +18,10 @@ import objects.ParkingLot;
  * UWF Parking App
  *
  * This class handles the general functionality of the program.
- * Julien: One thing I would like to figure out on later iterations is how to
- * ensure the connections to the database are closed upon program termination.
+ * The pooled database connections are closed when the program terminates.
+ * Methods ending in Async run the database call on a background executor
+ * and return a CompletableFuture, so the Swing event dispatch thread
+ * never waits for the database.
  *
  * @author Nathan, Will
  * @version 1.0
@@ -25,10 +32,10 @@ public class Controller
     private JFrame frame;
 
     /** temporary User object to modify */
-    private User user;
+    private volatile User user;
 
     /** temporary ParkingLot object to modify */
-    private ParkingLot lot;
+    private volatile ParkingLot lot;
 
     /** handles user-related database functionality */
     private UserDBManager userDBManager;
@@ -36,6 +43,16 @@ public class Controller
     /** handles parking-related database functionality */
     private LotDBManager lotDBManager;
 
+    /** handles permit-related database functionality */
+    private PermitDBManager permitDBManager;
+
+    /** queues lot reports for a background writer, null when lots are written right away */
+    private LotWriteBehind lotWriteBehind;
+
+    /** runs the database calls of the Async methods */
+    private final ExecutorService dbExecutor = TaskExecutors.newTaskExecutor("controller-db",
+            Runtime.getRuntime().availableProcessors());
+
     /**
      * Parameterized constructor which sets up the frame when first opened
      * @param frame
@@ -47,6 +64,41 @@ public class Controller
         frame.setVisible(true);
         userDBManager = new UserDBManager();
         lotDBManager = new LotDBManager();
+        permitDBManager = new PermitDBManager();
+        permitDBManager.startSweeper(SimpleDataSource.getIntProperty("permits.sweep.periodMillis", 3600000),
+                SimpleDataSource.getIntProperty("permits.sweep.chunkSize", 500));
+        lotDBManager.getArchive().startArchiver(SimpleDataSource.getIntProperty("archive.periodMillis", 86400000),
+                SimpleDataSource.getIntProperty("archive.keepDays", 30));
+        if (Boolean.parseBoolean(SimpleDataSource.getProperty("writeBehind.enabled", "false")))
+            lotWriteBehind = new LotWriteBehind(lotDBManager,
+                    SimpleDataSource.getIntProperty("writeBehind.capacity", 1000),
+                    SimpleDataSource.getIntProperty("writeBehind.batchSize", 100),
+                    Boolean.parseBoolean(SimpleDataSource.getProperty("writeBehind.coalesce", "true")),
+                    SimpleDataSource.getIntProperty("writeBehind.offerTimeoutMillis", 50));
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Lets database tasks already submitted finish, writes any queued
+     * lot reports and closes the database connections.
+     * Runs when the program terminates.
+     */
+    public void shutdown ()
+    {
+        dbExecutor.shutdown();
+        try
+        {
+            dbExecutor.awaitTermination(30, TimeUnit.SECONDS);          // their reports must reach the queue first
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        permitDBManager.stopSweeper();
+        lotDBManager.getArchive().stopArchiver();
+        if (lotWriteBehind != null)
+            lotWriteBehind.shutdown();
+        SimpleDataSource.shutdown();
     }
 
     /**
@@ -63,7 +115,6 @@ public class Controller
      */
     public void displayGUILogin ()      //Called from GUIWelcome()
     {
-        userDBManager.openConnection();
         frame.setContentPane(new GUILogin(this));	/* Sets the new panel in the JFrame. It will also overwrite any previous panels */
         frame.revalidate();	/* Updates the frame to display the new panel that was added */
     }
@@ -76,9 +127,10 @@ public class Controller
      */
     public boolean verifyLogin (String userName, String password)   //calls DBMgr() to verify username and password
     {                                                               //Called by CreateNewUser()
-        if (userDBManager.validateUserInfo(userName, password))
+        User found = userDBManager.authenticate(userName, password);    //one lookup returns the credentials and the profile
+        if (found != null)
         {
-            user = userDBManager.getUser(userName);
+            user = found;
             return true;//returns true/false based on valid username and password combo
         } else
             return false;
@@ -190,13 +242,17 @@ public class Controller
 
     /**
      * Updates the availability of the lot
+     * When write-behind is enabled the change is queued and written in the background.
      * @param lotID name of the lot
      * @param isOpen whether or not the lot is open or closed
      * @return updated ParkingLot object
      */
     public ParkingLot updateLotStatus (String lotID, boolean isOpen)
     {
-        lot = lotDBManager.updateLotStatus(lotID, isOpen);
+        if (lotWriteBehind != null)
+            lot = lotWriteBehind.submit(new LotUpdate(lotID, isOpen));
+        else
+            lot = lotDBManager.updateLotStatus(lotID, isOpen);
         return lot;
     }
 
@@ -255,6 +311,7 @@ public class Controller
 
     /**
      * Returns the parking lot object based on the lot id given or null if it does not exist in the database
+     * Recently used lots are served from LotDBManager's lot cache
      * @param lotID name of the lot
      * @return the parking lot if it exists in the database or null if it does not
      */
@@ -264,8 +321,20 @@ public class Controller
         return lot;
     }
 
+    /**
+     * Returns the lots with the most violations in the hotspot window (the last hour by default)
+     * The counts are kept in memory, so this can be called from the GUI thread
+     * @param k number of lots wanted
+     * @return up to k lots, most violations first
+     */
+    public List<ViolationHotspots.Hotspot> getHotspots (int k)
+    {
+        return lotDBManager.getHotspots().top(k);
+    }
+
     /**
      * Updates the parking lot object based on the lot id, number of cars, and number of violations
+     * When write-behind is enabled the report is queued and written in the background.
      * @param lotID name of the lot
      * @param numCars total number of cars in that lot
      * @param violations total number of violations for that lot
@@ -273,7 +342,11 @@ public class Controller
      */
     public ParkingLot updateLot (String lotID, int numCars, int violations)
     {
-        ParkingLot tempLot = lotDBManager.updateLot(lotID, numCars, violations);
+        ParkingLot tempLot;
+        if (lotWriteBehind != null)
+            tempLot = lotWriteBehind.submit(new LotUpdate(lotID, numCars, violations));
+        else
+            tempLot = lotDBManager.updateLot(lotID, numCars, violations);
         return tempLot;
     }
 
@@ -319,6 +392,82 @@ public class Controller
         lot.setOpen(open);
     }
 
+    /**
+     * Runs verifyLogin in the background
+     * @param userName
+     * @param password
+     * @return completes with true if the username and password combination was found
+     */
+    public CompletableFuture<Boolean> verifyLoginAsync (String userName, String password)
+    {
+        return CompletableFuture.supplyAsync(() -> verifyLogin(userName, password), dbExecutor);
+    }
+
+    /**
+     * Runs verifyDuplicate in the background
+     * @param userName
+     * @param password
+     * @return completes with true if the new user was added
+     */
+    public CompletableFuture<Boolean> verifyDuplicateAsync (String userName, String password)
+    {
+        return CompletableFuture.supplyAsync(() -> verifyDuplicate(userName, password), dbExecutor);
+    }
+
+    /**
+     * Runs getUser in the background
+     * @param userName the username of the user to be searched
+     * @return completes with the user object or null
+     */
+    public CompletableFuture<User> getUserAsync (String userName)
+    {
+        return CompletableFuture.supplyAsync(() -> getUser(userName), dbExecutor);
+    }
+
+    /**
+     * Runs updatePermissions in the background
+     * @param userName the username of the specific user that will have their permissions updated
+     * @param status to promote or demote a user
+     * @return completes once the permissions are updated
+     */
+    public CompletableFuture<Void> updatePermissionsAsync (String userName, int status)
+    {
+        return CompletableFuture.runAsync(() -> updatePermissions(userName, status), dbExecutor);
+    }
+
+    /**
+     * Runs getLot in the background
+     * @param lotID name of the lot
+     * @return completes with the parking lot or null
+     */
+    public CompletableFuture<ParkingLot> getLotAsync (String lotID)
+    {
+        return CompletableFuture.supplyAsync(() -> getLot(lotID), dbExecutor);
+    }
+
+    /**
+     * Runs updateLot in the background
+     * @param lotID name of the lot
+     * @param numCars total number of cars in that lot
+     * @param violations total number of violations for that lot
+     * @return completes with the updated parking lot or null
+     */
+    public CompletableFuture<ParkingLot> updateLotAsync (String lotID, int numCars, int violations)
+    {
+        return CompletableFuture.supplyAsync(() -> updateLot(lotID, numCars, violations), dbExecutor);
+    }
+
+    /**
+     * Runs updateLotStatus in the background
+     * @param lotID name of the lot
+     * @param isOpen whether or not the lot is open or closed
+     * @return completes with the updated parking lot or null
+     */
+    public CompletableFuture<ParkingLot> updateLotStatusAsync (String lotID, boolean isOpen)
+    {
+        return CompletableFuture.supplyAsync(() -> updateLotStatus(lotID, isOpen), dbExecutor);
+    }
+
     /**
      * Logs out the current user and displays the welcome page
      */
@@ -0,0 +1,830 @@
+package application;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import database.*;
+import objects.LotUpdate;
+import objects.ParkingLot;
+import objects.Permit;
+import objects.PermitsTypes;
+import objects.SpaceMap;
+import objects.User;
+import objects.Violation;
+import objects.UserPermissions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+/**
+ * File Name: HeadlessServer.java
+ * UWF Parking App
+ *
+ * This class runs the program without a window and serves the lot
+ * and user operations over HTTP with JSON responses, so kiosks and
+ * sensor bridges can share one process and one Derby database.
+ * It listens on the loopback address unless server.bindAddress says
+ * otherwise, and every request that is not a GET must carry the
+ * server.token in an "Authorization: Bearer" header; when no token is
+ * set, one is made at startup and printed.
+ *
+ * GET  /lots/{id}                                    the lot's latest state
+ * POST /lots/{id}/occupancy?cars={n}&amp;violations={n}  occupancy report
+ * POST /lots/{id}/status?open={true|false}           open or close the lot
+ * GET  /lots/{id}/violations?since={ms}&amp;limit={n}  the lot's newest tickets
+ * GET  /lots/{id}/history?from={ms}&amp;to={ms}[&amp;slice={ms}]  occupancy over a range, the last day by default
+ * POST /lots/{id}/stalls                             give the lot a map of its stalls, all free
+ * GET  /lots/{id}/stalls[?permit={type}]             free stalls, and the first one the permit may use
+ * POST /lots/{id}/stalls/{n}?occupied={true|false}   stall sensor reading
+ * POST /violations                                   upload tickets, one id,lot,time,summary line each
+ * POST /violations/{id}/photo                        attach a photo, the body holds the image
+ * DELETE /violations/{id}/photo                      remove the photo
+ * GET  /blobs/{key}                                  a stored photo
+ * GET  /users/{name}                                 the user's permissions
+ * POST /users/{name}/permissions?status={1|0}        promote or demote
+ * GET  /permits/{id}                                 the permit and whether it is valid today
+ * GET  /gate?permit={type}[&amp;lot={id}]            may the permit enter the lot, or the open lots it may enter
+ * GET  /hotspots?k={n}                               the lots with the most violations in the last hour
+ * GET  /metrics                                      pool, cache and conflict statistics
+ * POST /passwords?iterations={n}                     cost of new password hashes, older ones are upgraded at login
+ *
+ * @author Nathan, Will
+ * @version 1.0
+ */
+public class HeadlessServer
+{
+    /** handles user-related database functionality */
+    private final UserDBManager userDBManager;
+
+    /** handles parking-related database functionality */
+    private final LotDBManager lotDBManager;
+
+    /** handles permit-related database functionality */
+    private final PermitDBManager permitDBManager;
+
+    /** handles the stall maps of lots with stall sensors */
+    private final SpaceDBManager spaceDBManager;
+
+    /** queues lot reports for a background writer, null when lots are written right away */
+    private LotWriteBehind lotWriteBehind;
+
+    /** keeps the violation photos */
+    private final BlobStore blobStore;
+
+    /** largest photo accepted in bytes */
+    private final int maxPhotoBytes;
+
+    /** the HTTP server */
+    private final HttpServer server;
+
+    /** token write requests must carry */
+    private final byte[] token;
+
+    /** runs the requests, one virtual thread each when the JDK has them */
+    private final ExecutorService requestExecutor;
+
+    /**
+     * Opens the database and starts serving requests.
+     * @param port port to listen on
+     */
+    public HeadlessServer (int port) throws IOException
+    {
+        userDBManager = new UserDBManager();
+        lotDBManager = new LotDBManager();
+        permitDBManager = new PermitDBManager();
+        spaceDBManager = new SpaceDBManager(lotDBManager);
+        permitDBManager.startSweeper(SimpleDataSource.getIntProperty("permits.sweep.periodMillis", 3600000),
+                SimpleDataSource.getIntProperty("permits.sweep.chunkSize", 500));
+        lotDBManager.getArchive().startArchiver(SimpleDataSource.getIntProperty("archive.periodMillis", 86400000),
+                SimpleDataSource.getIntProperty("archive.keepDays", 30));
+        if (Boolean.parseBoolean(SimpleDataSource.getProperty("writeBehind.enabled", "false")))
+            lotWriteBehind = new LotWriteBehind(lotDBManager,
+                    SimpleDataSource.getIntProperty("writeBehind.capacity", 1000),
+                    SimpleDataSource.getIntProperty("writeBehind.batchSize", 100),
+                    Boolean.parseBoolean(SimpleDataSource.getProperty("writeBehind.coalesce", "true")),
+                    SimpleDataSource.getIntProperty("writeBehind.offerTimeoutMillis", 50));
+
+        blobStore = new BlobStore(SimpleDataSource.getProperty("blobs.dir", "blobs"),
+                SimpleDataSource.getIntProperty("blobs.chunkBytes", 64 * 1024 * 1024),
+                SimpleDataSource.getIntProperty("blobs.graceMillis", 3600000));
+        blobStore.startCompactor(SimpleDataSource.getIntProperty("blobs.compactPeriodMillis", 3600000),
+                lotDBManager::getPhotoHashes);
+        maxPhotoBytes = SimpleDataSource.getIntProperty("blobs.maxPhotoBytes", 10 * 1024 * 1024);
+
+        requestExecutor = TaskExecutors.newTaskExecutor("http",
+                Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        String configured = SimpleDataSource.getProperty("server.token", "");
+        if (configured.isEmpty())
+        {
+            byte[] random = new byte[24];
+            new SecureRandom().nextBytes(random);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : random)
+                hex.append(String.format("%02x", b));
+            configured = hex.toString();
+            System.out.println("No server.token set, write requests need: Bearer " + configured);
+        }
+        token = configured.getBytes(StandardCharsets.UTF_8);
+
+        String bindAddress = SimpleDataSource.getProperty("server.bindAddress", "");
+        InetAddress address = bindAddress.isEmpty() ? InetAddress.getLoopbackAddress()
+                : InetAddress.getByName(bindAddress);
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/lots/", guarded(this::handleLot));
+        server.createContext("/users/", guarded(this::handleUser));
+        server.createContext("/permits/", guarded(this::handlePermit));
+        server.createContext("/gate", guarded(this::handleGate));
+        server.createContext("/violations", guarded(this::handleViolations));
+        server.createContext("/hotspots", guarded(this::handleHotspots));
+        server.createContext("/blobs/", guarded(this::handleBlob));
+        server.createContext("/metrics", guarded(this::handleMetrics));
+        server.createContext("/passwords", guarded(this::handlePasswords));
+        server.setExecutor(requestExecutor);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+        System.out.println("Serving on " + server.getAddress());
+    }
+
+    /**
+     * Stops serving, lets requests being handled finish, writes any
+     * queued lot reports and closes the blob store, then the database connections.
+     */
+    public void shutdown ()
+    {
+        server.stop(1);
+        requestExecutor.shutdown();
+        try
+        {
+            requestExecutor.awaitTermination(30, TimeUnit.SECONDS);     // they still use the database and blobs
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        permitDBManager.stopSweeper();
+        lotDBManager.getArchive().stopArchiver();
+        if (lotWriteBehind != null)
+            lotWriteBehind.shutdown();
+        blobStore.close();
+        SimpleDataSource.shutdown();
+    }
+
+    /** Returns the port the server listens on */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Wraps a handler so that requests other than GET are refused
+     * unless they carry the server's token, and so that every request
+     * is answered even if the handler fails: 400 for a bad request,
+     * 500 for anything else.
+     * @param handler the handler to protect
+     * @return the protected handler
+     */
+    private HttpHandler guarded (HttpHandler handler)
+    {
+        return ex -> {
+            String method = ex.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD"))
+            {
+                String auth = ex.getRequestHeaders().getFirst("Authorization");
+                byte[] given = auth != null && auth.startsWith("Bearer ")
+                        ? auth.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8) : new byte[0];
+                if (!MessageDigest.isEqual(given, token))                  // takes the same time however much matches
+                {
+                    send(ex, 401, error("missing or wrong token"));
+                    return;
+                }
+            }
+            try
+            {
+                handler.handle(ex);
+            }
+            catch (IllegalArgumentException e)
+            {
+                send(ex, 400, error(String.valueOf(e.getMessage())));
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("exception in handling " + ex.getRequestURI());
+                e.printStackTrace();
+                send(ex, 500, error("internal error"));
+            }
+        };
+    }
+
+    /**
+     * Handles /lots/{id}, /lots/{id}/occupancy, /lots/{id}/status, /lots/{id}/violations,
+     * /lots/{id}/history and /lots/{id}/stalls
+     * @param ex the request
+     */
+    private void handleLot (HttpExchange ex) throws IOException
+    {
+        try
+        {
+            String[] path = ex.getRequestURI().getPath().substring("/lots/".length()).split("/");
+            Map<String, String> params = queryParams(ex);
+            String lotID = path[0];
+            String method = ex.getRequestMethod();
+            ParkingLot lot;
+
+            if (path.length == 2 && path[1].equals("violations") && method.equals("GET"))
+            {
+                List<Violation> violations = lotDBManager.getViolations(lotID,
+                        params.containsKey("since") ? Long.parseLong(params.get("since")) : 0,
+                        params.containsKey("limit") ? intParam(params, "limit") : 100);
+                StringBuilder json = new StringBuilder("[");
+                for (Violation v : violations)
+                    json.append(json.length() > 1 ? "," : "")
+                            .append("{\"id\":").append(quote(v.getViolationID()))
+                            .append(",\"summary\":").append(quote(String.valueOf(v.getSummary())))
+                            .append(",\"time\":").append(v.getRecordTime())
+                            .append(",\"photo\":").append(v.getPhotoHash() == null ? "null" : quote(v.getPhotoHash()))
+                            .append("}");
+                send(ex, 200, json.append("]").toString());
+                return;
+            }
+            if (path.length == 2 && path[1].equals("history") && method.equals("GET"))
+            {
+                if (lotDBManager.getLot(lotID) == null)
+                {
+                    send(ex, 404, error("lot does not exist"));
+                    return;
+                }
+                long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : System.currentTimeMillis();
+                long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : to - 24 * 60 * 60 * 1000;
+                LotHistoryStore history = lotDBManager.getHistory();
+                StringBuilder json = new StringBuilder("{\"lotID\":").append(quote(lotID))
+                        .append(",\"from\":").append(from)
+                        .append(",\"to\":").append(to)
+                        .append(",\"points\":").append(history.count(lotID, from, to))
+                        .append(",\"avgOccupied\":").append(history.averageOccupied(lotID, from, to))
+                        .append(",\"maxOccupied\":").append(history.maxOccupied(lotID, from, to))
+                        .append(",\"openMillis\":").append(history.openMillis(lotID, from, to))
+                        .append(",\"newViolations\":").append(history.newViolations(lotID, from, to));
+                if (params.containsKey("slice"))
+                {
+                    json.append(",\"maxOccupiedPerSlice\":[");
+                    String separator = "";
+                    for (int max : history.maxOccupiedPerSlice(lotID, from, to, Long.parseLong(params.get("slice"))))
+                    {
+                        json.append(separator).append(max);
+                        separator = ",";
+                    }
+                    json.append("]");
+                }
+                send(ex, 200, json.append("}").toString());
+                return;
+            }
+            if (path.length >= 2 && path[1].equals("stalls"))
+            {
+                handleStalls(ex, lotID, path, params);
+                return;
+            }
+            if (path.length == 1 && method.equals("GET"))
+                lot = lotDBManager.getLot(lotID);
+            else if (path.length == 2 && path[1].equals("occupancy") && method.equals("POST"))
+                lot = updateLot(new LotUpdate(lotID, countParam(params, "cars"),
+                        params.containsKey("violations") ? countParam(params, "violations") : 0));
+            else if (path.length == 2 && path[1].equals("status") && method.equals("POST"))
+                lot = updateLot(new LotUpdate(lotID, booleanParam(params, "open")));
+            else
+            {
+                send(ex, 404, error("no such operation"));
+                return;
+            }
+
+            if (lot == null)
+                send(ex, 404, error("lot does not exist"));
+            else
+                send(ex, 200, toJson(lot));
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(ex, 400, error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Handles /lots/{id}/stalls and /lots/{id}/stalls/{n}
+     * @param ex the request
+     * @param lotID name of the lot
+     * @param path the path after /lots/
+     * @param params the query parameters
+     */
+    private void handleStalls (HttpExchange ex, String lotID, String[] path, Map<String, String> params)
+            throws IOException
+    {
+        String method = ex.getRequestMethod();
+        PermitsTypes type = null;
+        SpaceMap map;
+        if (path.length == 2 && method.equals("POST"))
+            map = spaceDBManager.createSpaces(lotID);
+        else if (path.length == 2 && method.equals("GET"))
+        {
+            map = spaceDBManager.getSpaces(lotID);
+            if (params.containsKey("permit") && (type = PermitsTypes.fromString(params.get("permit"))) == null)
+            {
+                send(ex, 400, error("unknown permit type"));
+                return;
+            }
+        }
+        else if (path.length == 3 && method.equals("POST"))
+        {
+            int stall;
+            try
+            {
+                stall = Integer.parseInt(path[2]);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("stall is not a number");
+            }
+            map = spaceDBManager.setOccupied(lotID, stall, booleanParam(params, "occupied"));
+        }
+        else
+        {
+            send(ex, 404, error("no such operation"));
+            return;
+        }
+
+        if (map == null)
+        {
+            send(ex, 404, error("lot has no stall map"));
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"lotID\":").append(quote(lotID))
+                .append(",\"stalls\":").append(map.getStalls())
+                .append(",\"free\":").append(map.countFree());
+        if (type != null)
+            json.append(",\"permit\":").append(quote(type.getpString()))
+                    .append(",\"freeForPermit\":").append(map.countFree(type))
+                    .append(",\"firstFree\":").append(map.firstFree(type));
+        send(ex, 200, json.append("}").toString());
+    }
+
+    /**
+     * Applies a lot report, through the write-behind queue when it is enabled.
+     * @param update report to apply
+     * @return the updated lot, or null if the lot does not exist
+     */
+    private ParkingLot updateLot (LotUpdate update)
+    {
+        if (lotWriteBehind != null)
+            return lotWriteBehind.submit(update);
+        return lotDBManager.updateLot(update);          // versioned, so concurrent reports are not lost
+    }
+
+    /**
+     * Handles /users/{name} and /users/{name}/permissions
+     * @param ex the request
+     */
+    private void handleUser (HttpExchange ex) throws IOException
+    {
+        try
+        {
+            String[] path = ex.getRequestURI().getPath().substring("/users/".length()).split("/");
+            Map<String, String> params = queryParams(ex);
+            String name = URLDecoder.decode(path[0], StandardCharsets.UTF_8);
+            String method = ex.getRequestMethod();
+            User user;
+
+            if (path.length == 1 && method.equals("GET"))
+                user = userDBManager.getUser(name);
+            else if (path.length == 2 && path[1].equals("permissions") && method.equals("POST"))
+            {
+                int status = intParam(params, "status");
+                if (status != 0 && status != 1)
+                    throw new IllegalArgumentException("parameter status is not 0 or 1");
+                user = userDBManager.getUser(name);
+                if (user != null && user.getPermissions() == UserPermissions.SUPERVISOR)
+                {
+                    send(ex, 403, error("the supervisor's permissions cannot be changed"));
+                    return;
+                }
+                if (user != null)
+                {
+                    userDBManager.updatePermissions(name, status);
+                    user = userDBManager.getUser(name);
+                }
+            }
+            else
+            {
+                send(ex, 404, error("no such operation"));
+                return;
+            }
+
+            if (user == null)
+                send(ex, 404, error("user does not exist"));
+            else
+                send(ex, 200, "{\"name\":" + quote(user.getName()) +
+                        ",\"permissions\":" + quote(user.getPermissions().getpString()) + "}");
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(ex, 400, error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Handles /permits/{id}
+     * @param ex the request
+     */
+    private void handlePermit (HttpExchange ex) throws IOException
+    {
+        String[] path = ex.getRequestURI().getPath().substring("/permits/".length()).split("/");
+        if (path.length != 1 || !ex.getRequestMethod().equals("GET"))
+        {
+            send(ex, 404, error("no such operation"));
+            return;
+        }
+        Permit permit = permitDBManager.getPermit(URLDecoder.decode(path[0], StandardCharsets.UTF_8));
+        if (permit == null)
+            send(ex, 404, error("permit does not exist"));
+        else
+            send(ex, 200, "{\"id\":" + quote(permit.getId()) +
+                    ",\"type\":" + quote(String.valueOf(permit.getType())) +
+                    ",\"expiration\":" + (permit.getExpirationTime() == Permit.NO_EXPIRATION ? "null"
+                            : String.valueOf(permit.getExpirationTime())) +
+                    ",\"active\":" + permit.isActive() +
+                    ",\"valid\":" + permitDBManager.isValid(permit.getId()) + "}");
+    }
+
+    /**
+     * Handles /gate, answered from memory by the lots' eligibility matrix
+     * @param ex the request
+     */
+    private void handleGate (HttpExchange ex) throws IOException
+    {
+        Map<String, String> params = queryParams(ex);
+        PermitsTypes type = PermitsTypes.fromString(params.get("permit"));
+        if (type == null)
+        {
+            send(ex, 400, error("unknown permit type"));
+            return;
+        }
+        LotEligibility eligibility = lotDBManager.getEligibility();
+        String lotID = params.get("lot");
+        if (lotID != null)
+        {
+            send(ex, 200, "{\"permit\":" + quote(type.getpString()) + ",\"lot\":" + quote(lotID) +
+                    ",\"allowed\":" + eligibility.canEnter(type, lotID) + "}");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"permit\":").append(quote(type.getpString())).append(",\"openLots\":[");
+        String separator = "";
+        for (String lot : eligibility.openLotsAccepting(type))
+        {
+            json.append(separator).append(quote(lot));
+            separator = ",";
+        }
+        send(ex, 200, json.append("]}").toString());
+    }
+
+    /**
+     * Handles POST /violations. Each line of the body is one ticket,
+     * id,lot,time,summary with the time in epoch milliseconds; an empty
+     * id is filled in and the summary may hold commas.
+     * @param ex the request
+     */
+    private void handleViolations (HttpExchange ex) throws IOException
+    {
+        String[] path = ex.getRequestURI().getPath().split("/");      // "", "violations", id, "photo"
+        if (path.length == 4 && path[3].equals("photo"))
+        {
+            handlePhoto(ex, URLDecoder.decode(path[2], StandardCharsets.UTF_8));
+            return;
+        }
+        if (path.length != 2 || !ex.getRequestMethod().equals("POST"))
+        {
+            send(ex, 404, error("no such operation"));
+            return;
+        }
+        List<Violation> violations = new ArrayList<Violation>();
+        try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = lines.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] fields = line.split(",", 4);
+                if (fields.length != 4)
+                    throw new IllegalArgumentException("expected id,lot,time,summary: " + line);
+                violations.add(new Violation(fields[0].trim(), fields[1].trim(), fields[3].trim(),
+                        Long.parseLong(fields[2].trim())));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(ex, 400, error(e.getMessage()));
+            return;
+        }
+        int stored = lotDBManager.addViolations(violations);
+        send(ex, 200, "{\"received\":" + violations.size() + ",\"stored\":" + stored + "}");
+    }
+
+    /**
+     * Handles POST and DELETE /violations/{id}/photo.
+     * The photo is stored in the blob store and only its key in the
+     * Violation table; the same photo sent twice is stored once.
+     * @param ex the request
+     * @param violationID ID of the violation
+     */
+    private void handlePhoto (HttpExchange ex, String violationID) throws IOException
+    {
+        String key = null;
+        if (ex.getRequestMethod().equals("POST"))
+        {
+            byte[] photo;
+            try (InputStream in = ex.getRequestBody())
+            {
+                photo = in.readNBytes(maxPhotoBytes + 1);
+            }
+            if (photo.length == 0 || photo.length > maxPhotoBytes)
+            {
+                send(ex, 400, error("the photo must hold 1 to " + maxPhotoBytes + " bytes"));
+                return;
+            }
+            key = blobStore.put(photo);                                 // unreferenced if the violation does not exist
+        }
+        else if (!ex.getRequestMethod().equals("DELETE"))
+        {
+            send(ex, 404, error("no such operation"));
+            return;
+        }
+        if (!lotDBManager.setViolationPhoto(violationID, key))
+            send(ex, 404, error("violation does not exist"));
+        else
+            send(ex, 200, "{\"id\":" + quote(violationID) + ",\"photo\":" + (key == null ? "null" : quote(key)) + "}");
+    }
+
+    /**
+     * Handles GET /blobs/{key}, sending the bytes straight from the memory-mapped chunk
+     * @param ex the request
+     */
+    private void handleBlob (HttpExchange ex) throws IOException
+    {
+        String key = ex.getRequestURI().getPath().substring("/blobs/".length());
+        ByteBuffer blob = BlobStore.isKey(key) && ex.getRequestMethod().equals("GET") ? blobStore.get(key) : null;
+        if (blob == null)
+        {
+            send(ex, 404, error("no such photo"));
+            return;
+        }
+        ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        ex.getResponseHeaders().set("Cache-Control", "max-age=31536000, immutable");   // a key's bytes never change
+        ex.sendResponseHeaders(200, blob.remaining());
+        try (WritableByteChannel out = Channels.newChannel(ex.getResponseBody()))
+        {
+            while (blob.hasRemaining())
+                out.write(blob);
+        }
+    }
+
+    /**
+     * Handles /passwords, which changes the cost of new password hashes
+     * @param ex the request
+     */
+    private void handlePasswords (HttpExchange ex) throws IOException
+    {
+        if (!ex.getRequestMethod().equals("POST"))
+        {
+            send(ex, 404, error("no such operation"));
+            return;
+        }
+        int iterations = intParam(queryParams(ex), "iterations");
+        if (iterations < 1)
+            throw new IllegalArgumentException("parameter iterations must be positive");
+        userDBManager.getHasher().setIterations(iterations);
+        send(ex, 200, "{\"iterations\":" + iterations + "}");
+    }
+
+    /**
+     * Handles /hotspots, answered from memory by the hotspot window
+     * @param ex the request
+     */
+    private void handleHotspots (HttpExchange ex) throws IOException
+    {
+        Map<String, String> params = queryParams(ex);
+        int k;
+        try
+        {
+            k = params.containsKey("k") ? intParam(params, "k") : 5;
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(ex, 400, error(e.getMessage()));
+            return;
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (ViolationHotspots.Hotspot h : lotDBManager.getHotspots().top(k))
+            json.append(json.length() > 1 ? "," : "")
+                    .append("{\"lotID\":").append(quote(h.getLotID()))
+                    .append(",\"violations\":").append(h.getViolations()).append("}");
+        send(ex, 200, json.append("]").toString());
+    }
+
+    /**
+     * Handles /metrics
+     * @param ex the request
+     */
+    private void handleMetrics (HttpExchange ex) throws IOException
+    {
+        ConnectionPool pool = SimpleDataSource.getPool();
+        LotCache cache = lotDBManager.getCache();
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"pool\":{\"idle\":").append(pool.getIdleCount())
+                .append(",\"borrowed\":").append(pool.getBorrowedCount())
+                .append(",\"borrows\":").append(pool.getBorrowCount())
+                .append(",\"avgWaitMicros\":").append(pool.getAverageWaitMicros())
+                .append(",\"maxWaitMicros\":").append(pool.getMaxWaitMicros())
+                .append(",\"timeouts\":").append(pool.getTimeoutCount())
+                .append(",\"leaks\":").append(pool.getLeakCount()).append("}");
+        json.append(",\"lotCache\":{\"size\":").append(cache.size())
+                .append(",\"hits\":").append(cache.getHits())
+                .append(",\"misses\":").append(cache.getMisses()).append("}");
+        UserCache users = userDBManager.getCache();
+        json.append(",\"userCache\":{\"size\":").append(users.size())
+                .append(",\"hits\":").append(users.getHits())
+                .append(",\"misses\":").append(users.getMisses()).append("}");
+        BloomFilter names = userDBManager.getNames();
+        if (names != null)
+            json.append(",\"userNames\":{\"count\":").append(names.getCount())
+                    .append(",\"bytes\":").append(names.getSizeBytes())
+                    .append(",\"hashes\":").append(names.getNumHashes())
+                    .append(",\"expectedFpp\":").append(names.getExpectedFalsePositiveRate())
+                    .append(",\"checks\":").append(userDBManager.getNameChecks())
+                    .append(",\"skipped\":").append(userDBManager.getNameChecksSkipped())
+                    .append(",\"falsePositives\":").append(userDBManager.getNameFalsePositives()).append("}");
+        PasswordHasher hasher = userDBManager.getHasher();
+        json.append(",\"passwords\":{\"iterations\":").append(hasher.getIterations())
+                .append(",\"hashes\":").append(hasher.getHashes())
+                .append(",\"avgHashMicros\":").append(hasher.getAverageHashMicros())
+                .append(",\"maxHashMicros\":").append(hasher.getMaxHashMicros())
+                .append(",\"queued\":").append(hasher.getQueueDepth()).append("}");
+        json.append(",\"lots\":{\"conflicts\":").append(lotDBManager.getConflicts())
+                .append(",\"retries\":").append(lotDBManager.getRetries())
+                .append(",\"lockedWrites\":").append(lotDBManager.getLockedWrites()).append("}");
+        json.append(",\"violations\":{\"stored\":").append(lotDBManager.getViolationsStored())
+                .append(",\"rejected\":").append(lotDBManager.getViolationsRejected()).append("}");
+        LotHistoryStore history = lotDBManager.getHistory();
+        json.append(",\"history\":{\"lots\":").append(history.size())
+                .append(",\"points\":").append(history.getPoints())
+                .append(",\"bytes\":").append(history.getSizeBytes()).append("}");
+        LotArchive archive = lotDBManager.getArchive();
+        json.append(",\"archive\":{\"rows\":").append(archive.getArchivedRows())
+                .append(",\"days\":").append(archive.getArchivedDays())
+                .append(",\"blockBytes\":").append(archive.getBlockBytes())
+                .append(",\"lastArchiveMillis\":").append(archive.getLastArchiveMillis()).append("}");
+        json.append(",\"stalls\":{\"lots\":").append(spaceDBManager.size())
+                .append(",\"readings\":").append(spaceDBManager.getReadings())
+                .append(",\"changes\":").append(spaceDBManager.getChanges()).append("}");
+        json.append(",\"blobs\":{\"count\":").append(blobStore.size())
+                .append(",\"bytes\":").append(blobStore.getSizeBytes())
+                .append(",\"stored\":").append(blobStore.getStored())
+                .append(",\"deduplicated\":").append(blobStore.getDeduplicated())
+                .append(",\"reclaimedBytes\":").append(blobStore.getReclaimedBytes()).append("}");
+        json.append(",\"permits\":{\"sweeps\":").append(permitDBManager.getSweeps())
+                .append(",\"expired\":").append(permitDBManager.getExpired())
+                .append(",\"lastSweepMillis\":").append(permitDBManager.getLastSweepMillis()).append("}");
+        if (lotWriteBehind != null)
+            json.append(",\"writeBehind\":{\"depth\":").append(lotWriteBehind.getDepth())
+                    .append(",\"maxDepth\":").append(lotWriteBehind.getMaxDepth())
+                    .append(",\"written\":").append(lotWriteBehind.getWritten())
+                    .append(",\"failed\":").append(lotWriteBehind.getFailed())
+                    .append(",\"coalesced\":").append(lotWriteBehind.getCoalesced()).append("}");
+        json.append("}");
+        send(ex, 200, json.toString());
+    }
+
+    /**
+     * Turns a lot into JSON.
+     * @param lot the lot
+     * @return the JSON object
+     */
+    private static String toJson (ParkingLot lot)
+    {
+        return "{\"lotID\":" + quote(lot.getLotID()) +
+                ",\"total\":" + lot.getTotal() +
+                ",\"available\":" + lot.getAvailable() +
+                ",\"occupied\":" + lot.getOccupied() +
+                ",\"reserved\":" + lot.getReserved() +
+                ",\"handicapped\":" + lot.getHandicapped() +
+                ",\"commuter\":" + lot.getCommuter() +
+                ",\"resident\":" + lot.getResident() +
+                ",\"staff\":" + lot.getStaff() +
+                ",\"visitor\":" + lot.getVisitor() +
+                ",\"motorcycle\":" + lot.getMotorcycle() +
+                ",\"open\":" + lot.isOpen() +
+                ",\"violations\":" + lot.getViolations() +
+                ",\"recordTime\":" + lot.getRecordTime() + "}";
+    }
+
+    /** Returns a JSON error object */
+    private static String error (String message)
+    {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    /** Returns a JSON string */
+    private static String quote (String s)
+    {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray())
+        {
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Returns the request's query parameters */
+    private static Map<String, String> queryParams (HttpExchange ex)
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&"))
+        {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /** Returns a required numeric query parameter */
+    private static int intParam (Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("missing parameter " + name);
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("parameter " + name + " is not a number");
+        }
+    }
+
+    /** Returns a required numeric query parameter that is not negative, such as a number of cars */
+    private static int countParam (Map<String, String> params, String name)
+    {
+        int value = intParam(params, name);
+        if (value < 0)
+            throw new IllegalArgumentException("parameter " + name + " is negative");
+        return value;
+    }
+
+    /** Returns a required query parameter that is true or false */
+    private static boolean booleanParam (Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("missing parameter " + name);
+        if (!value.equals("true") && !value.equals("false"))
+            throw new IllegalArgumentException("parameter " + name + " is not true or false");
+        return value.equals("true");
+    }
+
+    /** Sends a JSON response and ends the exchange */
+    private static void send (HttpExchange ex, int status, String json) throws IOException
+    {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+}
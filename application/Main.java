@@ -1,12 +1,21 @@
 package application;
 
+import database.SimpleDataSource;
+import database.UserDBManager;
+import database.UserImporter;
 import guis.*;
+
+import java.io.FileReader;
+import java.io.Reader;
 /**
  * File Name: Main.java
  * UWF Parking App
  *
  * Simple class to hold the main method.
- * Creates GUI Controller and Controller.
+ * Creates GUI Controller and Controller, or with
+ * --headless [port] serves the database over HTTP instead.
+ * --import file [chunkSize] adds the users listed in a
+ * name,password,role CSV file, such as database/UserTable.txt.
  *
  * @author Nathan, Will
  * @version 1.0
@@ -15,10 +24,31 @@ public class Main
 {
 	/**
 	 * Starts the application
-	 * @param args
+	 * @param args --headless [port] to run without a window,
+	 *             --import file [chunkSize] to add users from a CSV file
 	 */
-	public static void main (String args[])
+	public static void main (String args[]) throws Exception
 	{
+		if (args.length > 0 && args[0].equals("--headless"))
+		{
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+			new HeadlessServer(port);
+			return;
+		}
+		if (args.length > 1 && args[0].equals("--import"))
+		{
+			int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+			UserImporter importer = new UserImporter(new UserDBManager(), chunkSize);
+			try (Reader in = new FileReader(args[1]))
+			{
+				UserImporter.Result result = importer.importUsers(in);
+				for (String rejected : result.getRejectedLines())
+					System.out.println(rejected);
+				System.out.println(result);
+			}
+			SimpleDataSource.shutdown();
+			return;
+		}
 		GUIController gui = new GUIController();
 		Controller controller = new Controller(gui);
 	}
@@ -0,0 +1,62 @@
+package application;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * File Name: TaskExecutors.java
+ * UWF Parking App
+ *
+ * Creates the executors that run database calls in the background.
+ * On a JDK with virtual threads every task gets its own virtual thread;
+ * otherwise a bounded pool of daemon threads is used.
+ *
+ * @author Nathan, Will
+ * @version 1.0
+ */
+public class TaskExecutors
+{
+    /**
+     * Creates an executor for blocking tasks such as database calls.
+     * @param name prefix of the thread names when platform threads are used
+     * @param platformThreads number of threads when virtual threads are not available
+     * @return the executor
+     */
+    public static ExecutorService newTaskExecutor (String name, int platformThreads)
+    {
+        try
+        {
+            // Executors.newVirtualThreadPerTaskExecutor() exists from JDK 21 on
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(platformThreads, platformThreads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreads(name));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * Creates a factory for named daemon threads, so background work
+     * never keeps the program from exiting.
+     * @param name prefix of the thread names
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreads (String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
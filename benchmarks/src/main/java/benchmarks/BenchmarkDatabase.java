@@ -0,0 +1,177 @@
+package benchmarks;
+
+import database.LotDBManager;
+import database.SimpleDataSource;
+import database.UserDBManager;
+import objects.ParkingLot;
+import objects.User;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+/**
+ * File Name: BenchmarkDatabase.java
+ * UWF Parking App
+ *
+ * This class opens a fresh Derby database for one benchmark trial.
+ * The database lives in a new temporary directory and uses the app's
+ * database.properties with only the URL changed, so the pool and cache
+ * settings being measured are the ones the app ships with.
+ * The app directory is taken from -Dparking.home, or else the current
+ * directory or its parent, whichever has database/database.properties.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class BenchmarkDatabase
+{
+    /** Lot rows appended to the history per batch while seeding */
+    private static final int SEED_BATCH = 1000;
+
+    /** directory holding the database */
+    private final Path dir;
+
+    /** the parking manager */
+    private final LotDBManager lotDBManager;
+
+    /** the user manager */
+    private final UserDBManager userDBManager;
+
+    /**
+     * Creates and seeds the database.
+     * @param lots number of lots, named L0, L1, ... (at most 100, Lot_ID has 3 characters)
+     * @param historyRows number of Lot history rows, spread over the lots
+     * @param users number of users, named user0, user1, ... with password "pw" + number
+     */
+    public BenchmarkDatabase (int lots, int historyRows, int users) throws Exception
+    {
+        dir = Files.createTempDirectory("parking-bench");
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(new File(appHome(), "database/database.properties")))
+        {
+            props.load(in);
+        }
+        props.setProperty("jdbc.url", "jdbc:derby:" + dir.resolve("db").toAbsolutePath() + ";create=true");
+        props.setProperty("writeBehind.enabled", "false");
+        File propsFile = dir.resolve("database.properties").toFile();
+        try (FileOutputStream out = new FileOutputStream(propsFile))
+        {
+            props.store(out, "benchmark database");
+        }
+        SimpleDataSource.init(propsFile.getPath());                 // the managers' own init calls reuse this pool
+
+        lotDBManager = new LotDBManager();
+        userDBManager = new UserDBManager();
+        seedHistory(lots, historyRows);
+        for (int i = 0; i < lots; i++)
+            lotDBManager.addLot(new ParkingLot(lotID(i), 200, 10, 10, 100, 40, 20, 10, 10, true));
+        for (int i = 0; i < users; i++)
+            userDBManager.addUser(new User(userName(i), "pw" + i));
+        lotDBManager.getCache().invalidateAll();
+    }
+
+    /**
+     * Appends history rows straight to the Lot table in batches,
+     * which is much faster than going through addLot.
+     * @param lots number of lots
+     * @param historyRows number of rows to append
+     */
+    private void seedHistory (int lots, int historyRows) throws Exception
+    {
+        long start = System.currentTimeMillis() - historyRows * 1000L;
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement insert = conn.prepareStatement(
+                     "INSERT INTO Lot VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"))
+        {
+            conn.setAutoCommit(false);
+            for (int row = 0; row < historyRows; row++)
+            {
+                int cars = row % 200;
+                insert.setString(1, lotID(row % lots));
+                insert.setInt(2, 200);
+                insert.setInt(3, 200 - cars);
+                insert.setInt(4, cars);
+                for (int col = 5; col <= 11; col++)
+                    insert.setInt(col, 10);
+                insert.setString(12, "open");
+                insert.setInt(13, row % 7);
+                insert.setTimestamp(14, new Timestamp(start + row * 1000L));
+                insert.addBatch();
+                if ((row + 1) % SEED_BATCH == 0)
+                {
+                    insert.executeBatch();
+                    conn.commit();
+                }
+            }
+            insert.executeBatch();
+            conn.commit();
+        }
+    }
+
+    /** Returns the name of lot i */
+    public static String lotID (int i)
+    {
+        return "L" + i;
+    }
+
+    /** Returns the name of user i */
+    public static String userName (int i)
+    {
+        return "user" + i;
+    }
+
+    /** Returns the parking manager */
+    public LotDBManager getLotDBManager ()
+    {
+        return lotDBManager;
+    }
+
+    /** Returns the user manager */
+    public UserDBManager getUserDBManager ()
+    {
+        return userDBManager;
+    }
+
+    /**
+     * Closes the connections and deletes the database.
+     */
+    public void close () throws IOException
+    {
+        SimpleDataSource.shutdown();
+        try
+        {
+            DriverManager.getConnection("jdbc:derby:;shutdown=true");
+        }
+        catch (SQLException expected)
+        {
+            // Derby always reports a successful shutdown as an exception
+        }
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** Returns the directory holding database/database.properties */
+    private static File appHome ()
+    {
+        String home = System.getProperty("parking.home");
+        if (home != null)
+            return new File(home);
+        File here = new File(".");
+        if (new File(here, "database/database.properties").exists())
+            return here;
+        return new File("..");
+    }
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import database.LotDBManager;
+import objects.ParkingLot;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * File Name: LotDBManagerBenchmark.java
+ * UWF Parking App
+ *
+ * Measures the LotDBManager calls the panels and the headless server
+ * make most: reading a lot, applying an occupancy report and adding a
+ * lot. Throughput is reported in operations per second, and the sample
+ * time mode reports the p50/p99 latencies.
+ * Run with -p cached=false to measure reads that miss the lot cache,
+ * and with -t 4 (or more) to measure concurrent callers.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LotDBManagerBenchmark
+{
+    /** number of Lot history rows in the database; run with -p historyRows=10000000 for the top of the range */
+    @Param({"1000", "100000", "1000000"})
+    public int historyRows;
+
+    /** number of lots the history is spread over */
+    @Param({"50"})
+    public int lots;
+
+    /** whether getLot may be answered by the lot cache */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    /** the database of this trial */
+    private BenchmarkDatabase db;
+
+    /** the manager measured */
+    private LotDBManager lotDBManager;
+
+    @Setup(Level.Trial)
+    public void open () throws Exception
+    {
+        db = new BenchmarkDatabase(lots, historyRows, 0);
+        lotDBManager = db.getLotDBManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void close () throws Exception
+    {
+        db.close();
+    }
+
+    /** Returns a random lot's name */
+    private String anyLot ()
+    {
+        return BenchmarkDatabase.lotID(ThreadLocalRandom.current().nextInt(lots));
+    }
+
+    @Benchmark
+    public ParkingLot getLot ()
+    {
+        String lotID = anyLot();
+        if (!cached)
+            lotDBManager.getCache().invalidate(lotID);
+        return lotDBManager.getLot(lotID);
+    }
+
+    @Benchmark
+    public ParkingLot updateLot ()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String lotID = anyLot();
+        if (!cached)
+            lotDBManager.getCache().invalidate(lotID);
+        return lotDBManager.updateLot(lotID, random.nextInt(200), random.nextInt(2));
+    }
+
+    @Benchmark
+    public ParkingLot addLot ()
+    {
+        ParkingLot lot = new ParkingLot(anyLot(), 200, 10, 10, 100, 40, 20, 10, 10, true);
+        lotDBManager.addLot(lot);
+        return lot;
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import database.UserDBManager;
+import objects.User;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * File Name: UserDBManagerBenchmark.java
+ * UWF Parking App
+ *
+ * Measures the UserDBManager calls made when logging in and signing up:
+ * checking credentials, reading a user and adding a user.
+ * Throughput is reported in operations per second, and the sample
+ * time mode reports the p50/p99 latencies.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserDBManagerBenchmark
+{
+    /** number of users in the database */
+    @Param({"1000", "100000"})
+    public int users;
+
+    /** number of Lot history rows in the database */
+    @Param({"1000"})
+    public int historyRows;
+
+    /** the database of this trial */
+    private BenchmarkDatabase db;
+
+    /** the manager measured */
+    private UserDBManager userDBManager;
+
+    /** number of users added by addUser so far */
+    private final AtomicInteger added = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void open () throws Exception
+    {
+        db = new BenchmarkDatabase(10, historyRows, users);
+        userDBManager = db.getUserDBManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void close () throws Exception
+    {
+        db.close();
+    }
+
+    @Benchmark
+    public boolean validateUserInfo ()
+    {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        return userDBManager.validateUserInfo(BenchmarkDatabase.userName(i), "pw" + i);
+    }
+
+    @Benchmark
+    public User getUser ()
+    {
+        return userDBManager.getUser(BenchmarkDatabase.userName(ThreadLocalRandom.current().nextInt(users)));
+    }
+
+    @Benchmark
+    public boolean addUser ()
+    {
+        int n = added.incrementAndGet();
+        return userDBManager.addUser(new User("new" + n, "pw" + n));
+    }
+}
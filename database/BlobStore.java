@@ -0,0 +1,524 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+/**
+ * File Name: BlobStore.java
+ * UWF Parking App
+ *
+ * This class keeps large binary data, such as violation photos, in
+ * files on disk instead of in the Derby database, so the database
+ * stays small and fast. Only a blob's key is stored in the database.
+ * A blob's key is the SHA-256 of its bytes, written in hex, so the
+ * same photo uploaded twice is stored once.
+ * Blobs are appended to chunk files (blobs-00001.dat, ...) of at most
+ * chunkBytes each and never changed in place. Each blob is stored as
+ * a header (magic, length, time written, SHA-256) followed by its
+ * bytes; the headers are read back when the store is opened to find
+ * every blob again. Reads are served from memory-mapped chunks.
+ * Blobs are not deleted one by one: the compactor asks which keys are
+ * still referenced, and copies the live blobs of chunks that are
+ * mostly garbage to the end of the store before removing the chunk.
+ * Blobs younger than the grace period are always kept, so one stored
+ * just before its key is saved in the database is not lost. Storing
+ * bytes that are already there, with less than half of their grace
+ * period left, appends them again with a new time; the newest copy
+ * is the one found when the store is opened, the older one is garbage.
+ * Full chunks are mapped once; the chunk being appended to maps only
+ * the blob being read, as it keeps growing.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class BlobStore
+{
+    /** first bytes of every stored blob */
+    private static final int MAGIC = 0x424C4F42;
+
+    /** bytes of a blob's header: magic, length, time, SHA-256 */
+    private static final int HEADER = 4 + 4 + 8 + 32;
+
+    /** share of a chunk that must be garbage before it is compacted */
+    private static final double COMPACT_RATIO = 0.5;
+
+    /** directory holding the chunk files */
+    private final Path dir;
+
+    /** largest size of a chunk file */
+    private final long chunkBytes;
+
+    /** how long a new blob is kept even if it is not referenced */
+    private final long graceMillis;
+
+    /** where each blob is, by key */
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+    /** the chunk files by number */
+    private final TreeMap<Integer, Chunk> chunks = new TreeMap<Integer, Chunk>();
+
+    /** the chunk blobs are appended to */
+    private Chunk active;
+
+    /** runs the compactor, null until started */
+    private ScheduledExecutorService compactor;
+
+    /** statistics */
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    /**
+     * Opens the store, creating its directory if needed, and finds
+     * every blob in its chunk files.
+     * @param dir directory holding the chunk files
+     * @param chunkBytes largest size of a chunk file
+     * @param graceMillis how long a new blob is kept even if it is not referenced
+     */
+    public BlobStore (String dir, long chunkBytes, long graceMillis) throws IOException
+    {
+        this.dir = new File(dir).toPath();
+        this.chunkBytes = Math.min(Integer.MAX_VALUE, Math.max(1024 * 1024, chunkBytes));     // one mapping per chunk
+        this.graceMillis = graceMillis;
+        Files.createDirectories(this.dir);
+        File[] files = this.dir.toFile().listFiles((d, name) -> name.matches("blobs-\\d{5}\\.dat"));
+        if (files != null)
+            for (File f : files)
+            {
+                Chunk c = new Chunk(Integer.parseInt(f.getName().substring(6, 11)), f.toPath());
+                chunks.put(c.number, c);
+                scan(c);
+            }
+        active = chunks.isEmpty() ? newChunk() : chunks.lastEntry().getValue();
+        for (Chunk c : chunks.headMap(active.number).values())
+            c.full = true;
+    }
+
+    /**
+     * Reads the headers of a chunk into the index. A blob cut short
+     * by a crash while it was written is dropped from the end.
+     * @param c the chunk
+     */
+    private void scan (Chunk c) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        long offset = 0;
+        long size = c.channel.size();
+        while (offset + HEADER <= size)
+        {
+            header.clear();
+            c.channel.read(header, offset);
+            header.flip();
+            int length = header.getInt(4);
+            if (header.getInt(0) != MAGIC || length < 0 || offset + HEADER + length > size)
+                break;
+            byte[] hash = new byte[32];
+            header.position(16);
+            header.get(hash);
+            String key = hex(hash);
+            Location found = new Location(c, offset + HEADER, length, header.getLong(8));
+            Location known = index.get(key);
+            if (known == null || found.written > known.written)        // the newest copy of blobs stored again
+            {
+                index.put(key, found);
+                if (known != null)
+                    known.chunk.dead += HEADER + known.length;
+            }
+            else
+                c.dead += HEADER + length;
+            c.bytes += HEADER + length;
+            offset += HEADER + length;
+        }
+        if (offset < size)
+        {
+            System.out.println("blob store: dropping " + (size - offset) + " bytes at the end of " + c.path);
+            c.channel.truncate(offset);
+        }
+        c.size = offset;
+    }
+
+    /**
+     * Stores a blob, unless the same bytes are already stored.
+     * @param data the bytes
+     * @return the blob's key
+     */
+    public String put (byte[] data) throws IOException
+    {
+        byte[] hash = sha256(data);
+        String key = hex(hash);
+        synchronized (this)                                             // not while compact decides what is garbage
+        {
+            long now = System.currentTimeMillis();
+            Location known = index.get(key);
+            if (known != null && (graceMillis <= 0 || known.written > now - graceMillis / 2))
+            {
+                deduplicated.incrementAndGet();
+                return key;
+            }
+            append(key, hash, ByteBuffer.wrap(data), now);              // maybe unreferenced: protect it like a new blob
+            active.channel.force(false);                                // evidence must survive a crash
+        }
+        stored.incrementAndGet();
+        return key;
+    }
+
+    /**
+     * Appends a blob to the active chunk, starting a new chunk when it is full.
+     * Called while holding the store's lock.
+     */
+    private void append (String key, byte[] hash, ByteBuffer data, long written) throws IOException
+    {
+        int length = data.remaining();
+        if (active.size > 0 && active.size + HEADER + length > chunkBytes)
+            active = newChunk();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(length).putLong(written).put(hash).flip();
+        long offset = active.size;
+        while (header.hasRemaining())
+            offset += active.channel.write(header, offset);
+        while (data.hasRemaining())
+            offset += active.channel.write(data, offset);
+        long start = active.size;
+        active.size = offset;                                           // before readers can find the blob
+        active.bytes += HEADER + length;
+        Location replaced = index.put(key, new Location(active, start + HEADER, length, written));
+        if (replaced != null)
+            replaced.chunk.dead += HEADER + replaced.length;
+    }
+
+    /** Creates the next chunk file. Called while holding the store's lock */
+    private Chunk newChunk () throws IOException
+    {
+        int number = chunks.isEmpty() ? 1 : chunks.lastKey() + 1;
+        if (!chunks.isEmpty())
+            chunks.lastEntry().getValue().full = true;                  // nothing is appended to it any more
+        Chunk c = new Chunk(number, dir.resolve(String.format("blobs-%05d.dat", number)));
+        chunks.put(number, c);
+        return c;
+    }
+
+    /**
+     * Returns a blob's bytes, read from the memory-mapped chunk.
+     * @param key the blob's key
+     * @return a read-only buffer over the bytes, or null if there is no such blob
+     */
+    public ByteBuffer get (String key) throws IOException
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            Location l = index.get(key);
+            if (l == null)
+                return null;
+            try
+            {
+                return l.chunk.read(l.offset, l.length);
+            }
+            catch (ClosedChannelException e)
+            {
+                if (attempt > 0)                                        // the blob was moved by the compactor
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a blob is stored.
+     * @param key the blob's key
+     * @return whether it is stored
+     */
+    public boolean contains (String key)
+    {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Removes the blobs that are no longer referenced from the chunks
+     * that are mostly garbage, copying their live blobs to the end of
+     * the store. The chunk being appended to is left alone.
+     * @param live keys still referenced, e.g. from the Violation table
+     * @return the number of bytes reclaimed
+     */
+    public synchronized long compact (Set<String> live) throws IOException
+    {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        Map<Chunk, List<String>> garbage = new TreeMap<Chunk, List<String>>();
+        Map<Chunk, Long> garbageBytes = new TreeMap<Chunk, Long>();
+        for (Chunk c : chunks.values())
+            if (c != active && c.dead > 0)                              // copies of blobs stored again
+                garbageBytes.put(c, c.dead);
+        for (Map.Entry<String, Location> e : index.entrySet())
+        {
+            Location l = e.getValue();
+            if (l.chunk != active && l.written < cutoff && !live.contains(e.getKey()))
+            {
+                garbage.computeIfAbsent(l.chunk, c -> new ArrayList<String>()).add(e.getKey());
+                garbageBytes.merge(l.chunk, (long) HEADER + l.length, Long::sum);
+            }
+        }
+
+        long reclaimed = 0;
+        for (Map.Entry<Chunk, Long> e : garbageBytes.entrySet())
+        {
+            Chunk c = e.getKey();
+            if (e.getValue() < c.bytes * COMPACT_RATIO)
+                continue;
+            for (String key : garbage.getOrDefault(c, new ArrayList<String>()))
+                index.remove(key);
+            for (Map.Entry<String, Location> moved : new ArrayList<Map.Entry<String, Location>>(index.entrySet()))
+                if (moved.getValue().chunk == c)                        // a live blob: copy it to the end
+                {
+                    Location l = moved.getValue();
+                    ByteBuffer data = get(moved.getKey());
+                    append(moved.getKey(), unhex(moved.getKey()), data, l.written);
+                }
+            active.channel.force(false);
+            chunks.remove(c.number);
+            c.channel.close();                                          // readers keep their mapping until they drop it
+            Files.deleteIfExists(c.path);
+            reclaimed += e.getValue();
+        }
+        compactions.incrementAndGet();
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Starts compacting in the background.
+     * @param periodMillis time between the end of one compaction and the start of the next
+     * @param live gives the keys still referenced
+     */
+    public synchronized void startCompactor (long periodMillis, Supplier<Set<String>> live)
+    {
+        if (compactor != null)
+            return;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "blob-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try
+            {
+                Set<String> keys = live.get();
+                if (keys != null)                                       // null if they could not be read
+                    compact(keys);
+            }
+            catch (IOException e)
+            {
+                System.out.println("io exception in compacting blobs");
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the compactor and closes the chunk files.
+     */
+    public void close ()
+    {
+        ScheduledExecutorService c;
+        synchronized (this)
+        {
+            c = compactor;
+            compactor = null;
+        }
+        if (c != null)
+        {
+            c.shutdown();
+            try
+            {
+                c.awaitTermination(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this)
+        {
+            for (Chunk chunk : chunks.values())
+                try
+                {
+                    chunk.channel.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+        }
+    }
+
+    /** Returns the SHA-256 of some bytes */
+    private static byte[] sha256 (byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Returns bytes written in lower case hex */
+    private static String hex (byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    /** Returns the bytes of a hex key */
+    private static byte[] unhex (String key)
+    {
+        byte[] bytes = new byte[key.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    /**
+     * Tells whether a string can be a blob's key.
+     * @param key the string
+     * @return whether it is 64 lower case hex digits
+     */
+    public static boolean isKey (String key)
+    {
+        return key != null && key.matches("[0-9a-f]{64}");
+    }
+
+    /** Returns the number of blobs stored */
+    public int size() {
+        return index.size();
+    }
+
+    /** Returns the number of blobs written */
+    public long getStored() {
+        return stored.get();
+    }
+
+    /** Returns the number of blobs not written because the same bytes were stored */
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    /** Returns the number of bytes the compactor reclaimed */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /** Returns the number of compactions run */
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    /** Returns the size of the chunk files in bytes */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (Chunk c : chunks.values())
+            size += c.size;
+        return size;
+    }
+
+    /**
+     * Where a blob's bytes are.
+     */
+    private static class Location
+    {
+        private final Chunk chunk;
+        private final long offset;
+        private final int length;
+        private final long written;
+
+        private Location (Chunk chunk, long offset, int length, long written)
+        {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+            this.written = written;
+        }
+    }
+
+    /**
+     * One chunk file.
+     */
+    private static class Chunk implements Comparable<Chunk>
+    {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+
+        /** end of the last blob, where the next one is written */
+        private volatile long size;
+
+        /** bytes of the blobs in the chunk, garbage included */
+        private long bytes;
+
+        /** bytes of older copies of blobs stored again in a later chunk */
+        private long dead;
+
+        /** set once blobs go to a later chunk, so its size no longer changes */
+        private volatile boolean full;
+
+        /** the whole chunk mapped into memory, once it is full */
+        private volatile MappedByteBuffer mapped;
+
+        private Chunk (int number, Path path) throws IOException
+        {
+            this.number = number;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Returns some of the chunk's bytes, memory-mapped.
+         * @param offset where they start
+         * @param length how many there are
+         * @return a read-only buffer over them
+         */
+        private ByteBuffer read (long offset, int length) throws IOException
+        {
+            if (!full)
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            MappedByteBuffer m = mapped;
+            if (m == null)
+                synchronized (this)
+                {
+                    m = mapped;
+                    if (m == null)
+                        mapped = m = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            ByteBuffer whole = m.duplicate();
+            whole.position((int) offset).limit((int) (offset + length));
+            return whole.slice();
+        }
+
+        public int compareTo (Chunk other)
+        {
+            return Integer.compare(number, other.number);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * File Name: BloomFilter.java
+ * UWF Parking App
+ *
+ * This class is a Bloom filter of strings: a set that can answer
+ * "definitely not present" without storing the strings, at the cost
+ * of sometimes answering "maybe present" for a string never added.
+ * It is sized for an expected number of strings and false-positive
+ * rate; adding more strings than expected raises the rate, which
+ * getExpectedFalsePositiveRate reports.
+ * Strings can be added and checked from several threads at once.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class BloomFilter
+{
+    /** the bits, 64 per long */
+    private final AtomicLongArray bits;
+
+    /** number of bits */
+    private final long numBits;
+
+    /** number of bits set per string */
+    private final int numHashes;
+
+    /** number of strings added */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Creates an empty filter.
+     * @param expected number of strings expected
+     * @param falsePositiveRate wanted rate of "maybe" for absent strings, e.g. 0.01
+     */
+    public BloomFilter (long expected, double falsePositiveRate)
+    {
+        long n = Math.max(1, expected);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE, (Math.max(64, m) + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = words * 64L;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a string.
+     * @param s the string
+     */
+    public void add (String s)
+    {
+        long h = hash(s);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 1; i <= numHashes; i++)
+        {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = bits.get(word);
+            while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask))
+                old = bits.get(word);
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Tells whether a string may have been added.
+     * @param s the string
+     * @return false if it was definitely never added
+     */
+    public boolean mightContain (String s)
+    {
+        long h = hash(s);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 1; i <= numHashes; i++)
+        {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a string to 64 bits (FNV-1a over its UTF-8 bytes,
+     * then a final mix so both halves are usable).
+     * @param s the string
+     * @return the hash
+     */
+    static long hash (String s)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8))
+        {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Returns the number of bits */
+    public long getNumBits() {
+        return numBits;
+    }
+
+    /** Returns the number of bits set per string */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /** Returns the number of strings added */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Returns the size of the filter in bytes */
+    public long getSizeBytes() {
+        return numBits / 8;
+    }
+
+    /** Returns the expected false-positive rate for the strings added so far */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-numHashes * (double) count.get() / numBits), numHashes);
+    }
+
+    /** Returns the filter's size and rate on one line */
+    public String toString()
+    {
+        return String.format("bloom[count=%d, bits=%d, hashes=%d, bytes=%d, fpp=%.5f]",
+                getCount(), getNumBits(), getNumHashes(), getSizeBytes(), getExpectedFalsePositiveRate());
+    }
+}
@@ -0,0 +1,659 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: ConnectionPool.java
+ * UWF Parking App
+ *
+ * A small bounded pool of JDBC connections used by SimpleDataSource.
+ * Connections handed out are proxies: calling close() gives the
+ * physical connection back to the pool instead of closing it.
+ * Idle connections above the minimum size are evicted after a while,
+ * connections are validated when borrowed, and connections held for
+ * too long are reported as possible leaks. Only one borrow in
+ * LEAK_TRACE_SAMPLE records where it happened, as taking a stack trace
+ * on every borrow is slow; a leaking caller repeats and is soon sampled.
+ * A leakThresholdMillis of 0 or less turns leak reports off.
+ * Each connection also keeps its most recently used PreparedStatements,
+ * so a query prepared on every call is only compiled once per connection.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class ConnectionPool
+{
+    /** database url */
+    private final String url;
+
+    /** database username */
+    private final String username;
+
+    /** database password */
+    private final String password;
+
+    /** number of connections kept open even when idle */
+    private final int minSize;
+
+    /** largest number of connections open at once */
+    private final int maxSize;
+
+    /** how long a borrower waits for a free connection */
+    private final long maxWaitMillis;
+
+    /** how long a connection above minSize may stay idle */
+    private final long idleTimeoutMillis;
+
+    /** how long a connection may be borrowed before it is reported */
+    private final long leakThresholdMillis;
+
+    /** one borrow in this many records its stack trace for leak reports */
+    private static final int LEAK_TRACE_SAMPLE = 16;
+
+    /** query used to check a connection before lending it, null to only check isClosed */
+    private final String validationQuery;
+
+    /** number of prepared statements kept per connection, 0 to disable */
+    private final int statementCacheSize;
+
+    /** connections ready to be borrowed, most recently used first */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+    /** connections currently lent out */
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+    /** one permit per connection that may still be lent out */
+    private final Semaphore permits;
+
+    /** runs idle eviction and leak detection */
+    private final ScheduledExecutorService housekeeper;
+
+    /** set once the pool is shut down */
+    private volatile boolean shutdown = false;
+
+    /** statistics */
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * Creates the pool and opens the minimum number of connections.
+     * @param url database url
+     * @param username database username
+     * @param password database password
+     * @param minSize connections kept open when idle
+     * @param maxSize largest number of connections open at once
+     * @param maxWaitMillis how long to wait for a free connection
+     * @param idleTimeoutMillis how long an extra connection may stay idle
+     * @param leakThresholdMillis how long a connection may be held before being reported
+     * @param validationQuery query run before lending a connection, or null
+     * @param statementCacheSize prepared statements kept per connection
+     */
+    public ConnectionPool (String url, String username, String password, int minSize, int maxSize,
+                           long maxWaitMillis, long idleTimeoutMillis, long leakThresholdMillis,
+                           String validationQuery, int statementCacheSize) throws SQLException
+    {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationQuery = validationQuery;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(this.maxSize, true);
+
+        for (int i = 0; i < this.minSize; i++)
+            idle.offerLast(create());
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to maxWaitMillis for one to be given back.
+     * Close the returned connection to give it back.
+     * @return a connection that returns to the pool when closed
+     */
+    public Connection borrow () throws SQLException
+    {
+        if (shutdown)
+            throw new SQLException("connection pool is shut down");
+
+        long start = System.nanoTime();
+        try
+        {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS))
+            {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("timed out after " + maxWaitMillis + " ms waiting for a connection");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection");
+        }
+        long waited = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try
+        {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null)
+            {
+                if (isValid(pc))
+                    break;
+                invalidCount.incrementAndGet();
+                pc.closePhysical();
+            }
+            if (pc == null)
+                pc = create();
+
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowedBy = leakThresholdMillis > 0 && borrowCount.get() % LEAK_TRACE_SAMPLE == 0
+                    ? new Throwable("connection borrowed here") : null;
+            pc.leakReported = false;
+            borrowed.add(pc);
+            return pc.newHandle();
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a connection back from a borrower.
+     * Open statements are closed, unfinished work is rolled back, and
+     * auto-commit and the isolation level are reset before it is lent out again.
+     * @param pc connection to give back
+     */
+    private void giveBack (PooledConnection pc)
+    {
+        if (!borrowed.remove(pc))
+            return;
+        boolean reusable = true;
+        try
+        {
+            pc.closeStatements();
+            if (!pc.physical.getAutoCommit())
+            {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            if (pc.physical.getTransactionIsolation() != pc.defaultIsolation)
+                pc.physical.setTransactionIsolation(pc.defaultIsolation);
+        }
+        catch (SQLException s)
+        {
+            reusable = false;
+        }
+        pc.borrowedBy = null;
+        pc.lastUsed = System.currentTimeMillis();
+        if (reusable && !shutdown)
+            idle.offerFirst(pc);
+        else
+            pc.closePhysical();
+        permits.release();
+    }
+
+    /**
+     * Checks that an idle connection can still be used.
+     * @param pc connection to check
+     * @return whether or not the connection works
+     */
+    private boolean isValid (PooledConnection pc)
+    {
+        try
+        {
+            if (pc.physical.isClosed())
+                return false;
+            if (validationQuery != null)
+                try (Statement s = pc.physical.createStatement())
+                {
+                    s.execute(validationQuery);
+                }
+            return true;
+        }
+        catch (SQLException s)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a new physical connection.
+     * @return the new pooled connection
+     */
+    private PooledConnection create () throws SQLException
+    {
+        PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, username, password));
+        createdCount.incrementAndGet();
+        return pc;
+    }
+
+    /**
+     * Evicts connections idle for too long (keeping minSize open)
+     * and reports connections that have been borrowed for too long.
+     */
+    private void housekeeping ()
+    {
+        long now = System.currentTimeMillis();
+
+        // idle deque is most-recently-used first, so the stalest are at the tail
+        PooledConnection pc;
+        while (idle.size() + borrowed.size() > minSize && (pc = idle.peekLast()) != null
+                && now - pc.lastUsed > idleTimeoutMillis)
+        {
+            if (idle.removeLastOccurrence(pc))
+            {
+                pc.closePhysical();
+                evictedCount.incrementAndGet();
+            }
+        }
+
+        for (PooledConnection b : borrowed)
+        {
+            Throwable where = b.borrowedBy;
+            if (leakThresholdMillis > 0 && !b.leakReported && now - b.borrowedAt > leakThresholdMillis)
+            {
+                b.leakReported = true;
+                leakCount.incrementAndGet();
+                System.out.println("possible connection leak: held for " + (now - b.borrowedAt) + " ms");
+                if (where != null)
+                    where.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops the housekeeper.
+     * Borrowed connections are closed when they are given back.
+     */
+    public void shutdown ()
+    {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null)
+            pc.closePhysical();
+    }
+
+    /** Returns the number of idle connections */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /** Returns the number of borrowed connections */
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /** Returns the largest number of connections open at once */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Returns the number of connections handed out so far */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /** Returns the average time spent waiting for a connection, in microseconds */
+    public long getAverageWaitMicros() {
+        long n = borrowCount.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / n / 1000;
+    }
+
+    /** Returns the longest time spent waiting for a connection, in microseconds */
+    public long getMaxWaitMicros() {
+        return maxWaitNanos.get() / 1000;
+    }
+
+    /** Returns the number of borrowers that gave up waiting */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /** Returns the number of physical connections opened */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /** Returns the number of idle connections closed by eviction */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /** Returns the number of connections that failed validation */
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+    /** Returns the number of connections reported as possible leaks */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /** Returns the number of prepared statements reused from a connection's cache */
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    /** Returns the number of prepared statements that had to be compiled */
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    /** Returns the pool statistics on one line */
+    public String toString()
+    {
+        return String.format("pool[idle=%d, borrowed=%d, max=%d, borrows=%d, avgWait=%dus, maxWait=%dus, " +
+                        "timeouts=%d, created=%d, evicted=%d, invalid=%d, leaks=%d, stmtHits=%d, stmtMisses=%d]",
+                getIdleCount(), getBorrowedCount(), maxSize, getBorrowCount(), getAverageWaitMicros(),
+                getMaxWaitMicros(), getTimeoutCount(), getCreatedCount(), getEvictedCount(),
+                getInvalidCount(), getLeakCount(), getStatementHits(), getStatementMisses());
+    }
+
+    /**
+     * A physical connection along with its pool bookkeeping.
+     */
+    private class PooledConnection
+    {
+        /** the real connection */
+        private final Connection physical;
+
+        /** isolation level the connection was opened with */
+        private final int defaultIsolation;
+
+        /** statements opened by the current borrower */
+        private final List<Statement> statements = new ArrayList<Statement>();
+
+        /** prepared statements kept across borrows, least recently used first */
+        private final Map<String, CachedStatement> statementCache =
+                new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+
+        /** when the connection was last given back */
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        /** when the current borrower took the connection */
+        private volatile long borrowedAt;
+
+        /** where the current borrower took the connection */
+        private volatile Throwable borrowedBy;
+
+        /** whether the current borrow was already reported as a leak */
+        private volatile boolean leakReported;
+
+        private PooledConnection (Connection physical) throws SQLException
+        {
+            this.physical = physical;
+            this.defaultIsolation = physical.getTransactionIsolation();
+        }
+
+        /**
+         * Creates the handle given to a borrower.
+         * Each borrow gets its own handle so a closed handle cannot be used again.
+         */
+        private Connection newHandle ()
+        {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+
+        /**
+         * Returns the cached statement for the sql, preparing it on a miss.
+         * Returns null if the cached statement is already in use by this borrower.
+         * @param sql the statement text
+         * @return a statement whose close() keeps it in the cache, or null
+         */
+        private PreparedStatement cachedStatement (String sql) throws SQLException
+        {
+            CachedStatement cs = statementCache.get(sql);
+            if (cs == null)
+            {
+                statementMisses.incrementAndGet();
+                cs = new CachedStatement(physical.prepareStatement(sql));
+                cs.inUse = true;
+                statementCache.put(sql, cs);
+                trimStatements();
+            }
+            else if (cs.inUse)
+                return null;
+            else
+                statementHits.incrementAndGet();
+            cs.inUse = true;
+            return cs.newHandle();
+        }
+
+        /**
+         * Closes the least recently used statements over the cache size.
+         * Statements the borrower still has open are skipped; they go on a later miss.
+         */
+        private void trimStatements ()
+        {
+            Iterator<CachedStatement> it = statementCache.values().iterator();
+            while (statementCache.size() > statementCacheSize && it.hasNext())
+            {
+                CachedStatement cs = it.next();
+                if (!cs.inUse)
+                {
+                    cs.closeQuietly();
+                    it.remove();
+                }
+            }
+        }
+
+        /** Closes statements the borrower left open */
+        private void closeStatements ()
+        {
+            for (CachedStatement cs : statementCache.values())
+                cs.release();
+            for (Statement s : statements)
+                try
+                {
+                    s.close();
+                }
+                catch (SQLException ignored)
+                {
+                }
+            statements.clear();
+        }
+
+        /** Closes the real connection */
+        private void closePhysical ()
+        {
+            try
+            {
+                physical.close();
+            }
+            catch (SQLException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * Forwards calls to the physical connection until close() is called.
+     */
+    private class Handle implements InvocationHandler
+    {
+        /** connection this handle belongs to, null once closed */
+        private PooledConnection pc;
+
+        private Handle (PooledConnection pc)
+        {
+            this.pc = pc;
+        }
+
+        public Object invoke (Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            if (name.equals("close"))
+            {
+                PooledConnection toGiveBack = pc;
+                pc = null;
+                if (toGiveBack != null)
+                    giveBack(toGiveBack);
+                return null;
+            }
+            if (name.equals("isClosed"))
+                return pc == null;
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (name.equals("toString"))
+                return "pooled " + pc;
+            if (pc == null)
+                throw new SQLException("connection already given back to the pool");
+
+            if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0)
+            {
+                PreparedStatement cached = pc.cachedStatement((String) args[0]);
+                if (cached != null)
+                    return cached;
+            }
+
+            try
+            {
+                Object value = method.invoke(pc.physical, args);
+                if (value instanceof Statement)
+                    pc.statements.add((Statement) value);
+                return value;
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A PreparedStatement kept open in a connection's cache.
+     */
+    private static class CachedStatement
+    {
+        /** the real statement */
+        private final PreparedStatement physical;
+
+        /** whether a borrower currently holds it */
+        private boolean inUse;
+
+        private CachedStatement (PreparedStatement physical)
+        {
+            this.physical = physical;
+        }
+
+        /**
+         * Creates the handle given to a borrower.
+         * Closing the handle clears the parameters and leaves the statement open.
+         */
+        private PreparedStatement newHandle ()
+        {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new InvocationHandler()
+                    {
+                        /** set once the borrower closed this handle */
+                        private boolean closed = false;
+
+                        public Object invoke (Object proxy, Method method, Object[] args) throws Throwable
+                        {
+                            String name = method.getName();
+                            if (name.equals("close"))
+                            {
+                                if (!closed)
+                                {
+                                    closed = true;
+                                    release();
+                                }
+                                return null;
+                            }
+                            if (name.equals("isClosed"))
+                                return closed;
+                            if (name.equals("equals"))
+                                return proxy == args[0];
+                            if (name.equals("hashCode"))
+                                return System.identityHashCode(proxy);
+                            if (closed)
+                                throw new SQLException("statement already closed");
+                            try
+                            {
+                                return method.invoke(physical, args);
+                            }
+                            catch (InvocationTargetException e)
+                            {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+
+        /** Makes the statement available to the next borrower */
+        private void release ()
+        {
+            if (!inUse)
+                return;
+            inUse = false;
+            try
+            {
+                physical.clearParameters();
+                physical.clearBatch();
+                physical.setMaxRows(0);
+            }
+            catch (SQLException ignored)
+            {
+            }
+        }
+
+        /** Closes the real statement */
+        private void closeQuietly ()
+        {
+            try
+            {
+                physical.close();
+            }
+            catch (SQLException ignored)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: LotArchive.java
+ * UWF Parking App
+ *
+ * This class holds the LotArchive table, where old Lot history rows
+ * are kept compressed: one row per lot and day, holding the day's
+ * rows packed by LotHistoryCodec in a BLOB.
+ * The archiver runs in the background and moves the Lot rows older
+ * than keepDays into the archive a lot and a day at a time, each in
+ * one transaction, so every row is in exactly one of the two tables.
+ * A day that gets more rows after it was archived has them merged in.
+ * Scans read the blocks of the days asked for and stream their rows
+ * back without making a ParkingLot for each.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotArchive
+{
+    /** A lot's Lot rows of a range of time, counters in LotHistoryCodec order */
+    private static final String READ_ROWS = "SELECT Time, Total, Available, Occupied, Reserved, Handicapped, " +
+            "Commuter, Resident, Staff, Visitor, Motorcycle, Violations, Status FROM Lot " +
+            "WHERE Lot_ID = ? AND Time >= ? AND Time < ? ORDER BY Time";
+
+    /** A lot's blocks of a range of days */
+    private static final String READ_BLOCKS = "SELECT Block FROM LotArchive WHERE Lot_ID = ? AND Day >= ? AND Day <= ? " +
+            "ORDER BY Day";
+
+    /** largest block stored, in bytes */
+    private static final int MAX_BLOCK = 16 * 1024 * 1024;
+
+    /** runs the archiver, null until started */
+    private ScheduledExecutorService archiver;
+
+    /** statistics */
+    private final AtomicLong archivedRows = new AtomicLong();
+    private final AtomicLong archivedDays = new AtomicLong();
+    private final AtomicLong blockBytes = new AtomicLong();
+    private volatile long lastArchiveMillis;
+
+    /**
+     * Method used to create the LotArchive table if it does not exist.
+     * @param conn connection to use
+     */
+    static void createTable (Connection conn) throws SQLException
+    {
+        try (ResultSet tables = conn.getMetaData().getTables(null, null, "LOTARCHIVE", null))
+        {
+            if (tables.next())
+                return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("CREATE TABLE LotArchive (Lot_ID VARCHAR(3) NOT NULL, Day DATE NOT NULL, " +
+                    "Num_Rows INTEGER, Block BLOB(" + MAX_BLOCK + "), PRIMARY KEY (Lot_ID, Day))");
+            System.out.println("LotArchive table created");
+        }
+    }
+
+    /**
+     * Method used to move the Lot rows older than a number of days into the archive.
+     * @param keepDays number of days, before today, whose rows stay in the Lot table
+     * @return the number of rows moved
+     */
+    public synchronized int archive (int keepDays)
+    {
+        long start = System.currentTimeMillis();
+        long cutoff = startOfDay(LocalDate.now().minusDays(Math.max(0, keepDays)));
+        int total = 0;
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            List<String> lotIDs = new ArrayList<String>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT DISTINCT Lot_ID FROM Lot WHERE Time < ?"))
+            {
+                ps.setTimestamp(1, new Timestamp(cutoff));
+                try (ResultSet rs = ps.executeQuery())
+                {
+                    while (rs.next())
+                        lotIDs.add(rs.getString(1));
+                }
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement oldest = conn.prepareStatement(
+                    "SELECT MIN(Time) FROM Lot WHERE Lot_ID = ? AND Time < ?"))
+            {
+                for (String lotID : lotIDs)
+                    while (true)
+                    {
+                        oldest.setString(1, lotID);
+                        oldest.setTimestamp(2, new Timestamp(cutoff));
+                        Timestamp first;
+                        try (ResultSet rs = oldest.executeQuery())
+                        {
+                            rs.next();
+                            first = rs.getTimestamp(1);
+                        }
+                        if (first == null)
+                            break;                                          // nothing left to move for this lot
+                        LocalDate day = Instant.ofEpochMilli(first.getTime()).atZone(ZoneId.systemDefault())
+                                .toLocalDate();
+                        total += archiveDay(conn, lotID, day, Math.min(cutoff, startOfDay(day.plusDays(1))));
+                        conn.commit();                                      // one lot and day at a time
+                    }
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
+            finally
+            {
+                conn.setAutoCommit(true);
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in archive");
+            s.printStackTrace();
+        }
+        archivedRows.addAndGet(total);
+        lastArchiveMillis = System.currentTimeMillis() - start;
+        return total;
+    }
+
+    /**
+     * Method used to move a lot's rows of one day into its block,
+     * merging them with the rows archived before.
+     * @param conn connection to use, not in auto-commit mode
+     * @param lotID name of the lot
+     * @param day the day
+     * @param end time the rows moved stop at, excluded
+     * @return the number of rows moved
+     */
+    private int archiveDay (Connection conn, String lotID, LocalDate day, long end) throws SQLException
+    {
+        List<Row> rows = new ArrayList<Row>();
+        java.sql.Date date = java.sql.Date.valueOf(day);
+        boolean existed = false;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT Block FROM LotArchive WHERE Lot_ID = ? AND Day = ?"))
+        {
+            ps.setString(1, lotID);
+            ps.setDate(2, date);
+            try (ResultSet rs = ps.executeQuery())
+            {
+                if (rs.next())
+                {
+                    existed = true;
+                    LotHistoryCodec.decode(rs.getBytes(1), (time, counters, open) ->
+                            rows.add(new Row(time, counters.clone(), open)));
+                }
+            }
+        }
+        int archived = rows.size();
+
+        try (PreparedStatement ps = conn.prepareStatement(READ_ROWS))
+        {
+            ps.setString(1, lotID);
+            ps.setTimestamp(2, new Timestamp(startOfDay(day)));
+            ps.setTimestamp(3, new Timestamp(end));
+            try (ResultSet rs = ps.executeQuery())
+            {
+                while (rs.next())
+                {
+                    int[] counters = new int[LotHistoryCodec.COUNTERS];
+                    for (int c = 0; c < counters.length; c++)
+                        counters[c] = rs.getInt(c + 2);
+                    rows.add(new Row(rs.getTimestamp(1).getTime(), counters,
+                            "open".equalsIgnoreCase(rs.getString(13))));
+                }
+            }
+        }
+        int moved = rows.size() - archived;
+        if (archived > 0)
+            rows.sort(Comparator.comparingLong(r -> r.time));           // late rows go in time order
+
+        LotHistoryCodec.Encoder encoder = new LotHistoryCodec.Encoder();
+        for (Row r : rows)
+            encoder.add(r.time, r.counters, r.open);
+        byte[] block = encoder.toBytes();
+        if (block.length > MAX_BLOCK)
+            throw new SQLException("lot " + lotID + " has too many rows on " + day + " to archive");
+
+        try (PreparedStatement ps = conn.prepareStatement(existed
+                ? "UPDATE LotArchive SET Num_Rows = ?, Block = ? WHERE Lot_ID = ? AND Day = ?"
+                : "INSERT INTO LotArchive (Num_Rows, Block, Lot_ID, Day) VALUES (?, ?, ?, ?)"))
+        {
+            ps.setInt(1, rows.size());
+            ps.setBytes(2, block);
+            ps.setString(3, lotID);
+            ps.setDate(4, date);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM Lot WHERE Lot_ID = ? AND Time >= ? AND Time < ?"))
+        {
+            ps.setString(1, lotID);
+            ps.setTimestamp(2, new Timestamp(startOfDay(day)));
+            ps.setTimestamp(3, new Timestamp(end));
+            ps.executeUpdate();
+        }
+        archivedDays.incrementAndGet();
+        blockBytes.addAndGet(block.length);
+        return moved;
+    }
+
+    /**
+     * Method used to read a lot's archived rows of a range of time.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @param visitor receives each row, oldest first
+     * @return the number of rows read, -1 if the archive could not be read
+     */
+    public int scan (String lotID, long from, long to, LotHistoryCodec.Visitor visitor)
+    {
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            return scan(conn, lotID, from, to, visitor);
+        }
+        catch (SQLException | IllegalArgumentException s)
+        {
+            System.out.println("exception in scan");
+            s.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Method used to read a lot's archived rows of a range of time on a given connection.
+     * @param conn connection to use
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @param visitor receives each row, oldest first
+     * @return the number of rows read
+     */
+    static int scan (Connection conn, String lotID, long from, long to, LotHistoryCodec.Visitor visitor)
+            throws SQLException
+    {
+        long last = Math.min(to, System.currentTimeMillis() + 24L * 60 * 60 * 1000);    // no block is newer
+        int[] count = new int[1];
+        try (PreparedStatement ps = conn.prepareStatement(READ_BLOCKS))
+        {
+            ps.setString(1, lotID);
+            ps.setDate(2, java.sql.Date.valueOf(Instant.ofEpochMilli(Math.max(0, from))
+                    .atZone(ZoneId.systemDefault()).toLocalDate()));
+            ps.setDate(3, java.sql.Date.valueOf(Instant.ofEpochMilli(last)
+                    .atZone(ZoneId.systemDefault()).toLocalDate()));
+            try (ResultSet rs = ps.executeQuery())
+            {
+                while (rs.next())
+                    LotHistoryCodec.decode(rs.getBytes(1), (time, counters, open) -> {
+                        if (time >= from && time < to)
+                        {
+                            count[0]++;
+                            visitor.row(time, counters, open);
+                        }
+                    });
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Starts archiving old rows in the background.
+     * @param periodMillis time between the end of one run and the start of the next
+     * @param keepDays number of days, before today, whose rows stay in the Lot table
+     */
+    public synchronized void startArchiver (long periodMillis, int keepDays)
+    {
+        if (archiver != null)
+            return;
+        archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lot-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        archiver.scheduleWithFixedDelay(() -> archive(keepDays), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background archiver, letting a running pass finish.
+     */
+    public void stopArchiver ()
+    {
+        ScheduledExecutorService running;
+        synchronized (this)
+        {
+            running = archiver;
+            archiver = null;
+        }
+        if (running == null)
+            return;
+        running.shutdown();                                                 // Derby must not be interrupted
+        try
+        {
+            running.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the start of a day in epoch milliseconds */
+    private static long startOfDay (LocalDate day)
+    {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** Returns the number of rows moved into the archive */
+    public long getArchivedRows() {
+        return archivedRows.get();
+    }
+
+    /** Returns the number of blocks written */
+    public long getArchivedDays() {
+        return archivedDays.get();
+    }
+
+    /** Returns the bytes of the blocks written */
+    public long getBlockBytes() {
+        return blockBytes.get();
+    }
+
+    /** Returns how long the last run took in milliseconds */
+    public long getLastArchiveMillis() {
+        return lastArchiveMillis;
+    }
+
+    /**
+     * One history row while a day is packed.
+     */
+    private static class Row
+    {
+        private final long time;
+        private final int[] counters;
+        private final boolean open;
+
+        private Row (long time, int[] counters, boolean open)
+        {
+            this.time = time;
+            this.counters = counters;
+            this.open = open;
+        }
+    }
+}
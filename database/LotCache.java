@@ -0,0 +1,184 @@
+package database;
+
+import objects.ParkingLot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: LotCache.java
+ * UWF Parking App
+ *
+ * This class keeps the latest ParkingLot of each lot in memory so
+ * repeated lookups of the same lot do not go to the database.
+ * LotDBManager writes every lot it saves through to the cache.
+ * Lots are copied in and out, so callers may change the lots
+ * they get back without changing the cached state.
+ * A lot is only replaced by a newer version of it, so writers that
+ * finish out of order cannot leave an older state cached. A
+ * write-behind projection (version -1) stays until LotWriteBehind
+ * drops it once its reports are written.
+ * When the cache is full the least recently used lot is dropped.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotCache
+{
+    /** the cached lots by ID */
+    private final ConcurrentHashMap<String, Entry> lots = new ConcurrentHashMap<String, Entry>();
+
+    /** largest number of lots kept */
+    private final int maxSize;
+
+    /** ticks on every access, used to find the least recently used lot */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param maxSize largest number of lots kept
+     */
+    public LotCache (int maxSize)
+    {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Returns a copy of the cached lot.
+     * @param lotID name of the lot
+     * @return the lot, or null if it is not cached
+     */
+    public ParkingLot get (String lotID)
+    {
+        Entry e = lots.get(lotID);
+        if (e == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        e.lastAccess = clock.incrementAndGet();
+        return new ParkingLot(e.lot);
+    }
+
+    /**
+     * Caches a lot that was just written to the database, or a
+     * write-behind projection of it, replacing any older state of
+     * the same lot. A stored state older than the cached one, or
+     * any stored state while a projection is cached, is ignored.
+     * @param lot the lot's latest state
+     */
+    public void put (ParkingLot lot)
+    {
+        lots.merge(lot.getLotID(), new Entry(new ParkingLot(lot), clock.incrementAndGet()),
+                (cached, fresh) -> isNewer(fresh.lot, cached.lot) ? fresh : cached);
+        trim();
+    }
+
+    /** Tells whether a lot state should replace the cached one */
+    private static boolean isNewer (ParkingLot fresh, ParkingLot cached)
+    {
+        if (fresh.getVersion() < 0)
+            return true;                                                // a projection of queued reports
+        if (cached.getVersion() < 0)
+            return false;                                               // kept until its reports are written
+        return fresh.getVersion() >= cached.getVersion();
+    }
+
+    /**
+     * Caches a lot that was just read from the database.
+     * Does nothing if the lot was cached in the meantime, so a slow
+     * read cannot overwrite the state from a newer write.
+     * @param lot the lot as read
+     */
+    public void putIfAbsent (ParkingLot lot)
+    {
+        lots.putIfAbsent(lot.getLotID(), new Entry(new ParkingLot(lot), clock.incrementAndGet()));
+        trim();
+    }
+
+    /**
+     * Drops a lot so the next lookup reads it from the database.
+     * @param lotID name of the lot
+     */
+    public void invalidate (String lotID)
+    {
+        lots.remove(lotID);
+    }
+
+    /** Drops every lot */
+    public void invalidateAll ()
+    {
+        lots.clear();
+    }
+
+    /** Drops the least recently used lots until the cache fits */
+    private void trim ()
+    {
+        while (lots.size() > maxSize)
+        {
+            String oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> e : lots.entrySet())
+                if (e.getValue().lastAccess < oldestAccess)
+                {
+                    oldestAccess = e.getValue().lastAccess;
+                    oldest = e.getKey();
+                }
+            if (oldest != null && lots.remove(oldest) != null)
+                evictions.incrementAndGet();
+        }
+    }
+
+    /** Returns the number of cached lots */
+    public int size() {
+        return lots.size();
+    }
+
+    /** Returns the largest number of lots kept */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Returns the number of lookups served from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that went to the database */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of lots dropped to keep the cache within its size */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Returns the cache statistics on one line */
+    public String toString()
+    {
+        return String.format("lotCache[size=%d, max=%d, hits=%d, misses=%d, evictions=%d]",
+                size(), maxSize, getHits(), getMisses(), getEvictions());
+    }
+
+    /**
+     * A cached lot and when it was last used.
+     */
+    private static class Entry
+    {
+        private final ParkingLot lot;
+        private volatile long lastAccess;
+
+        private Entry (ParkingLot lot, long lastAccess)
+        {
+            this.lot = lot;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
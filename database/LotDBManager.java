@@ -2,6 +2,7 @@ package database;
 
 import objects.*;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -9,14 +10,49 @@ import java.sql.DatabaseMetaData;
 import java.sql.Statement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 /**
  * File Name: LotDBManager.java
  * UWF Parking App
  *
  * This class holds parking-related tables and SQL statements to add to them.
+ * Every lot change is appended to the Lot history table, and the
+ * LotCurrent table keeps one row per lot holding its latest state.
+ * Recently used lots are also kept in a LotCache, which every
+ * saved lot is written through to.
+ * Which permit types each lot accepts and whether it is open are
+ * kept in a LotEligibility as well, for the entrance gates.
+ * Every method borrows its own connection and statements, and writes
+ * run in their own transaction, so one manager can be used from
+ * several threads at once.
+ * Each LotCurrent row carries a Version that every write increments.
+ * Changes are written only if the row still has the version they were
+ * computed from (compare-and-set); on a conflict the lot is read again
+ * and the change re-applied, and after lots.maxRetries conflicts the
+ * row is locked for the last attempt, so no report is ever lost.
+ * Violations are stored one row each in the Violation table, indexed
+ * by lot and time, and counted in their lot's Violations column as
+ * they are added, so counts are never recomputed from the tickets.
+ * Every violation stored or reported is also counted in a
+ * ViolationHotspots window for the "hottest lots" reports.
+ * Every history row committed is also appended to a LotHistoryStore,
+ * which keeps lots' history as columns in memory for range reports.
+ * History older than a few weeks can be moved, compressed, into
+ * the LotArchive table by its archiver.
  * For now, all Lot-related functionality is complete.
- * Next iteration will see to violation-related features and map-locations.
+ * Next iteration will see to map-locations.
  * The option to save a report to a text file will also be considered.
  *
  * @author Julien
@@ -24,25 +60,73 @@ import java.util.Date;
  */
 public class LotDBManager
 {
+    /** Appends a row to the Lot history */
+    private static final String INSERT_HISTORY = "INSERT INTO Lot VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Adds the LotCurrent row of a new lot, Version is the last parameter */
+    private static final String INSERT_CURRENT = "INSERT INTO LotCurrent VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Sets every column of a LotCurrent row from Total to Time */
+    private static final String SET_CURRENT = "UPDATE LotCurrent SET Total = ?, Available = ?, Occupied = ?, " +
+            "Reserved = ?, Handicapped = ?, Commuter = ?, Resident = ?, Staff = ?, Visitor = ?, Motorcycle = ?, " +
+            "Status = ?, Violations = ?, Time = ?, Version = Version + 1 WHERE Lot_ID = ?";
+
+    /** Replaces the LotCurrent row of a lot whatever its version, Lot_ID is the last parameter */
+    private static final String REPLACE_CURRENT = SET_CURRENT;
+
+    /** Replaces the LotCurrent row of a lot if it still has the expected version (parameter 15) */
+    private static final String UPDATE_CURRENT = SET_CURRENT + " AND Version = ?";
+
+    /** Stores a violation */
+    private static final String INSERT_VIOLATION = "INSERT INTO Violation (Violation_ID, Lot_ID, Summary, Time, " +
+            "Photo_Hash) VALUES (?, ?, ?, ?, ?)";
+
+    /** Adds violations to a lot's count */
+    private static final String ADD_VIOLATIONS = "UPDATE LotCurrent SET Violations = Violations + ?, Time = ?, " +
+            "Version = Version + 1 WHERE Lot_ID = ?";
+
+    /** Largest number of lots read by one IN (...) query */
+    private static final int IN_LIST_SIZE = 100;
+
+    /** Sizes IN (...) lists are padded to */
+    private static final int[] IN_LIST_SIZES = { 1, 10, 25, 50, IN_LIST_SIZE };
+
+    /**
+     * Latest state of recently used lots
+     */
+    private LotCache cache;
+
     /**
-     * Used to access database
+     * Permit types accepted by every lot, and which lots are open
      */
-    private Connection conn;
+    private final LotEligibility eligibility = new LotEligibility();
 
     /**
-     * Used to issue general SQL statements
+     * Lots with the most violations lately
      */
-    private Statement stat;
+    private ViolationHotspots hotspots;
 
     /**
-     * Used for specific SQL statements
+     * History of the lots asked for, as columns
      */
-    private PreparedStatement pStat;
+    private LotHistoryStore historyStore;
 
     /**
-     * Used to store the results from a query
+     * Old history, compressed by lot and day
      */
-    private ResultSet result;
+    private final LotArchive archive = new LotArchive();
+
+    /**
+     * Number of version conflicts a change may retry before the lot is locked
+     */
+    private int maxRetries = 3;
+
+    /** statistics */
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong lockedWrites = new AtomicLong();
+    private final AtomicLong violationsStored = new AtomicLong();
+    private final AtomicLong violationsRejected = new AtomicLong();
 
     /**
      * Default constructor that reads the properties file and initializes access to the database
@@ -57,13 +141,22 @@ public class LotDBManager
         try
         {
             SimpleDataSource.init("database/database.properties");
-            this.openConnection();
-            this.stat = this.conn.createStatement();
+            this.cache = new LotCache(SimpleDataSource.getIntProperty("cache.lots.maxSize", 256));
+            this.maxRetries = Math.max(0, SimpleDataSource.getIntProperty("lots.maxRetries", 3));
+            this.hotspots = new ViolationHotspots(SimpleDataSource.getIntProperty("hotspots.windowMillis", 3600000),
+                    SimpleDataSource.getIntProperty("hotspots.buckets", 12),
+                    SimpleDataSource.getIntProperty("hotspots.width", 1024),
+                    SimpleDataSource.getIntProperty("hotspots.depth", 4),
+                    SimpleDataSource.getIntProperty("hotspots.candidates", 64));
+            this.historyStore = new LotHistoryStore(SimpleDataSource.getIntProperty("history.maxAgeDays", 400)
+                    * 24L * 60 * 60 * 1000);
             this.createTables(0);
+            this.createTables(1);
             addLot(e);
             updateLotCars("E", 74);
             addLot(z);
             updateLotCars("Z", 44);
+            loadEligibility();
             //stat.execute("DROP TABLE Lot");
         }
         catch (Exception ex)
@@ -73,62 +166,74 @@ public class LotDBManager
         }
     }
 
-    /**
-     * Method used show to open the connection
-     */
-    public void openConnection ()
-    {
-        try
-        {
-            conn = SimpleDataSource.getConnection();
-        }
-        catch (Exception e)
-        {
-            System.out.println("connection already open");
-        }
-    }
-
     /**
      * Method used to create the Lot tables.
      * 0 - Lots, 1 - Violations, other - Map
      * Always checks to makes sure the tables do not
      * exist before creating them.
+     * The Lot table's (Lot_ID, Time DESC) index, the LotArchive
+     * table, the LotCurrent Version column and the Violation table's
+     * (Lot_ID, Time DESC) index and Photo_Hash column are also added
+     * if they are missing, so older databases pick them up too.
      * @param tableToCreate determines what table to create
      */
     public void createTables (int tableToCreate)
     {
-        try
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement stat = conn.createStatement())
         {
             DatabaseMetaData meta = conn.getMetaData();
-            result = meta.getTables(null, null, "%", null);
-            while (this.result.next())
-                switch (tableToCreate)
-                {
-                    case 0:
-                        if (result.getString("TABLE_NAME").equals("LOT"))
-                            return;
-                    case 1:
-                        if (result.getString("TABLE_NAME").equals("VIOLATION"))
-                            return;
-                    default:
-                        if (result.getString("TABLE_NAME").equals("MAP"))
-                            return;
-                }
+            String tableName;
+            switch (tableToCreate)
+            {
+                case 0:
+                    tableName = "LOT";
+                    break;
+                case 1:
+                    tableName = "VIOLATION";
+                    break;
+                default:
+                    tableName = "MAP";
+            }
+            boolean exists;
+            try (ResultSet tables = meta.getTables(null, null, tableName, null))
+            {
+                exists = tables.next();
+            }
+
             switch (tableToCreate)
             {
                 case 0:
-                    stat.execute("CREATE TABLE Lot (Lot_ID VARCHAR(3), Total INTEGER, Available INTEGER, " +
-                            "Occupied INTEGER, Reserved INTEGER, Handicapped INTEGER, Commuter INTEGER, " +
-                            "Resident INTEGER, Staff INTEGER, Visitor INTEGER, Motorcycle INTEGER, " +
-                            "Status VARCHAR(10), Violations INTEGER, Time TIMESTAMP)");
-                    System.out.println("Lot table created");
+                    if (!exists)
+                    {
+                        stat.execute("CREATE TABLE Lot (Lot_ID VARCHAR(3), Total INTEGER, Available INTEGER, " +
+                                "Occupied INTEGER, Reserved INTEGER, Handicapped INTEGER, Commuter INTEGER, " +
+                                "Resident INTEGER, Staff INTEGER, Visitor INTEGER, Motorcycle INTEGER, " +
+                                "Status VARCHAR(10), Violations INTEGER, Time TIMESTAMP)");
+                        System.out.println("Lot table created");
+                    }
+                    // newest row per lot is found by reading this index backwards from the lot's latest time
+                    createIndex(conn, "LOT", "LOT_LATEST", "Lot_ID, Time DESC");
+                    createCurrentTable(conn);
+                    createColumn(conn, "LOTCURRENT", "VERSION", "BIGINT NOT NULL DEFAULT 0");
+                    LotArchive.createTable(conn);
                     break;
                 case 1:
-                    stat.execute("CREATE TABLE Violation (Lot_ID VARCHAR2(3), Summary VARCHAR(100), " +
-                            "Violation_ID VARCHAR(10), Time TIMESTAMP");
-                    System.out.println("Violation table created");
+                    if (!exists)
+                    {
+                        stat.execute("CREATE TABLE Violation (Violation_ID VARCHAR(" + Violation.MAX_ID + ") " +
+                                "NOT NULL PRIMARY KEY, Lot_ID VARCHAR(3), Summary VARCHAR(" + Violation.MAX_SUMMARY +
+                                "), Time TIMESTAMP)");
+                        System.out.println("Violation table created");
+                    }
+                    // a lot's tickets are read newest first
+                    createIndex(conn, "VIOLATION", "VIOLATION_LOT_TIME", "Lot_ID, Time DESC");
+                    // key of the ticket's photo in the BlobStore
+                    createColumn(conn, "VIOLATION", "PHOTO_HASH", "CHAR(64)");
                     break;
                 default:
+                    if (exists)
+                        return;
                     stat.execute("CREATE TABLE Map (Lot_ID VARCHAR(3), Map_Location VARCHAR(50)");
                     System.out.println("Map table created");
             }
@@ -140,104 +245,222 @@ public class LotDBManager
         }
     }
 
+    /**
+     * Method used to create the LotCurrent table, which holds
+     * the latest state of every lot, one row per Lot_ID.
+     * When it is created on a database that already has history,
+     * it is filled with each lot's newest Lot row.
+     * @param conn connection to use
+     */
+    private void createCurrentTable (Connection conn) throws SQLException
+    {
+        try (ResultSet tables = conn.getMetaData().getTables(null, null, "LOTCURRENT", null))
+        {
+            if (tables.next())
+                return;
+        }
+        List<String> lotIDs = new ArrayList<String>();
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("CREATE TABLE LotCurrent (Lot_ID VARCHAR(3) NOT NULL PRIMARY KEY, Total INTEGER, " +
+                    "Available INTEGER, Occupied INTEGER, Reserved INTEGER, Handicapped INTEGER, " +
+                    "Commuter INTEGER, Resident INTEGER, Staff INTEGER, Visitor INTEGER, Motorcycle INTEGER, " +
+                    "Status VARCHAR(10), Violations INTEGER, Time TIMESTAMP, Version BIGINT NOT NULL DEFAULT 0)");
+            System.out.println("LotCurrent table created");
+            try (ResultSet ids = s.executeQuery("SELECT DISTINCT Lot_ID FROM Lot"))
+            {
+                while (ids.next())
+                    lotIDs.add(ids.getString(1));
+            }
+        }
+
+        conn.setAutoCommit(false);
+        try (PreparedStatement latest = conn.prepareStatement("SELECT * FROM Lot WHERE Lot_ID = ? ORDER BY Time DESC");
+             PreparedStatement insert = conn.prepareStatement(INSERT_CURRENT))
+        {
+            latest.setMaxRows(1);
+            for (String lotID : lotIDs)
+            {
+                latest.setString(1, lotID);
+                try (ResultSet rs = latest.executeQuery())
+                {
+                    if (rs.next())
+                    {
+                        insert.setString(1, lotID);
+                        bindState(insert, readLot(rs), 2);
+                        insert.setLong(15, 0);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+            conn.commit();
+        }
+        finally
+        {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Method used to create an index if it does not exist yet.
+     * @param conn connection to use
+     * @param tableName table to index (upper case)
+     * @param indexName name of the index (upper case)
+     * @param columns the indexed columns
+     */
+    private void createIndex (Connection conn, String tableName, String indexName, String columns)
+            throws SQLException
+    {
+        try (ResultSet indexes = conn.getMetaData().getIndexInfo(null, null, tableName, false, false))
+        {
+            while (indexes.next())
+                if (indexName.equals(indexes.getString("INDEX_NAME")))
+                    return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("CREATE INDEX " + indexName + " ON " + tableName + " (" + columns + ")");
+            System.out.println(indexName + " index created");
+        }
+    }
+
+    /**
+     * Method used to create a column if it does not exist yet.
+     * @param conn connection to use
+     * @param tableName table to change (upper case)
+     * @param columnName name of the column (upper case)
+     * @param definition type and default of the column
+     */
+    private void createColumn (Connection conn, String tableName, String columnName, String definition)
+            throws SQLException
+    {
+        try (ResultSet columns = conn.getMetaData().getColumns(null, null, tableName, columnName))
+        {
+            if (columns.next())
+                return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + definition);
+            System.out.println(columnName + " column added to " + tableName);
+        }
+    }
+
     /**
      * Method used to add to the Lot table.
+     * The row is appended to the Lot history and the lot's
+     * LotCurrent row is replaced whatever its version,
+     * in the same transaction.
      * (SEND OVER SUPERVISOR-CREATED OBJECT)
      * (Call once per lot, use updateLot for updates)
-     * @param p lot to add
+     * @param p lot to add, its version is set to the stored one
      */
     public void addLot (ParkingLot p)
     {
-        String query = "INSERT INTO Lot VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try
+        try (Connection conn = SimpleDataSource.getConnection())
         {
-            conn.setAutoCommit(false);                                      // disable automatic SQL statements for now
-
-            pStat = conn.prepareStatement(query);                           // prepare the statement
-            pStat.setString(1, p.getLotID());
-            pStat.setInt(2, p.getTotal());
-            pStat.setInt(3, p.getAvailable());
-            pStat.setInt(4, p.getOccupied());
-            pStat.setInt(5, p.getReserved());
-            pStat.setInt(6, p.getHandicapped());
-            pStat.setInt(7, p.getCommuter());
-            pStat.setInt(8, p.getResident());
-            pStat.setInt(9, p.getStaff());
-            pStat.setInt(10, p.getVisitor());
-            pStat.setInt(11, p.getMotorcycle());
-            if (p.isOpen())
-                pStat.setString(12, "open");
-            else
-                pStat.setString(12, "close");
-
-            pStat.setInt(13, p.getViolations());
-            pStat.setTimestamp(14, new Timestamp(p.getRecordDate().getTime()));
-
-            pStat.executeUpdate();                                                      // update the statement
-            conn.commit();                                                              // and send it to the table
-
-            conn.setAutoCommit(true);                                               // turn on automatic SQL statements
+            conn.setAutoCommit(false);                                      // history and current state commit together
+            try (PreparedStatement history = conn.prepareStatement(INSERT_HISTORY);
+                 PreparedStatement update = conn.prepareStatement(REPLACE_CURRENT))
+            {
+                history.setString(1, p.getLotID());
+                bindState(history, p, 2);
+                history.executeUpdate();
+
+                bindState(update, p, 1);
+                update.setString(14, p.getLotID());
+                if (update.executeUpdate() == 0)                            // first row for this lot
+                    try (PreparedStatement insert = conn.prepareStatement(INSERT_CURRENT))
+                    {
+                        insert.setString(1, p.getLotID());
+                        bindState(insert, p, 2);
+                        insert.setLong(15, 0);
+                        insert.executeUpdate();
+                        p.setVersion(0);
+                    }
+                else
+                    try (PreparedStatement version = conn.prepareStatement(
+                            "SELECT Version FROM LotCurrent WHERE Lot_ID = ?"))
+                    {
+                        version.setString(1, p.getLotID());
+                        try (ResultSet rs = version.executeQuery())
+                        {
+                            rs.next();
+                            p.setVersion(rs.getLong(1));
+                        }
+                    }
+                conn.commit();                                              // and send it to the tables
+                cache.put(p);
+                eligibility.update(p);
+                historyStore.append(p);
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
             //System.out.println("added lot");
         }
         catch (SQLException s)
         {
-            System.out.println("sql exception in addUser");
+            cache.invalidate(p.getLotID());                                 // state of the lot is unknown now
+            System.out.println("sql exception in addLot");
             s.printStackTrace();
         }
     }
 
+    /**
+     * Method used to set a lot's state on a statement, in the
+     * column order of the Lot table from Total to Time.
+     * @param ps statement to fill in
+     * @param p lot to take the values from
+     * @param first index of the Total parameter
+     */
+    private void bindState (PreparedStatement ps, ParkingLot p, int first) throws SQLException
+    {
+        ps.setInt(first, p.getTotal());
+        ps.setInt(first + 1, p.getAvailable());
+        ps.setInt(first + 2, p.getOccupied());
+        ps.setInt(first + 3, p.getReserved());
+        ps.setInt(first + 4, p.getHandicapped());
+        ps.setInt(first + 5, p.getCommuter());
+        ps.setInt(first + 6, p.getResident());
+        ps.setInt(first + 7, p.getStaff());
+        ps.setInt(first + 8, p.getVisitor());
+        ps.setInt(first + 9, p.getMotorcycle());
+        ps.setString(first + 10, p.isOpen() ? "open" : "close");
+        ps.setInt(first + 11, p.getViolations());
+        ps.setTimestamp(first + 12, new Timestamp(p.getRecordTime()));
+    }
+
     /**
      * Method used to create a ParkingLot object.
-     * A lot is retrieved through lotID
-     * and latest timestamp (date and time).
+     * A lot is retrieved through lotID from the lot cache,
+     * or else from the LotCurrent table, so the cost does
+     * not depend on how much history the lot has.
      * Will also check to see if lot exists
-     * and return false if it doesn't.
+     * and return null if it doesn't.
      *
      * @param lotID the name of the lot to find
-     * @return whether or not the user can see a lot's info
+     * @return the lot's latest information, or null
      */
     public ParkingLot getLot (String lotID)
     {
+        ParkingLot cached = cache.get(lotID);
+        if (cached != null)
+            return cached;
 
-        ParkingLot lotToReturn = new ParkingLot();
-        String query1 = String.format("SELECT * FROM Lot" +
-                " WHERE Lot_ID = '%s'", lotID);
-        String query2 = String.format("SELECT * FROM Lot l1 " +
-                "WHERE Lot_ID = '%s'" +
-                "AND Time IN " +
-                "(SELECT MAX(Time) FROM Lot l2 WHERE l1.Lot_ID = l2.Lot_ID)", lotID);
-        try
+        try (Connection conn = SimpleDataSource.getConnection())
         {
-            conn.setAutoCommit(true);
-            result = stat.executeQuery(query1);
-            if (!result.next())
+            ParkingLot lotToReturn = readCurrent(conn, lotID);
+            if (lotToReturn == null)
             {
                 //System.out.println("lot does not exist");
                 return null;
             }
-
-            result = stat.executeQuery(query2);
-            while (result.next())
-            {
-                lotToReturn.setLotID(result.getString(1));
-                lotToReturn.setTotal(result.getInt(2));
-                lotToReturn.setAvailable(result.getInt(3));
-                lotToReturn.setOccupied(result.getInt(4));
-                lotToReturn.setReserved(result.getInt(5));
-                lotToReturn.setHandicapped(result.getInt(6));
-                lotToReturn.setCommuter(result.getInt(7));
-                lotToReturn.setResident(result.getInt(8));
-                lotToReturn.setStaff(result.getInt(9));
-                lotToReturn.setVisitor(result.getInt(10));
-                lotToReturn.setMotorcycle(result.getInt(11));
-                if (result.getString(12).equals("OPEN") || result.getString(12).equals("open"))
-                    lotToReturn.setOpen(true);
-                else
-                    lotToReturn.setOpen(false);
-                lotToReturn.setViolations(result.getInt(13));
-                lotToReturn.setRecordDate(new Date(result.getTimestamp(14).getTime()));
-            }
-            //System.out.println("updated lot");
+            cache.putIfAbsent(lotToReturn);
+            eligibility.update(lotToReturn);
+            return lotToReturn;
         }
         catch (Exception e)
         {
@@ -245,10 +468,257 @@ public class LotDBManager
             e.printStackTrace();
             return null;
         }
-        //System.out.println("return lot for lotDBManager.getLot()");
+    }
+
+    /**
+     * Method used to create a ParkingLot object from the current row of a Lot query.
+     * @param rs result positioned on a row of the Lot or LotCurrent table
+     * @return the lot in that row
+     */
+    private ParkingLot readLot (ResultSet rs) throws SQLException
+    {
+        ParkingLot lotToReturn = new ParkingLot();
+        lotToReturn.setLotID(rs.getString(1));
+        lotToReturn.setTotal(rs.getInt(2));
+        lotToReturn.setAvailable(rs.getInt(3));
+        lotToReturn.setOccupied(rs.getInt(4));
+        lotToReturn.setReserved(rs.getInt(5));
+        lotToReturn.setHandicapped(rs.getInt(6));
+        lotToReturn.setCommuter(rs.getInt(7));
+        lotToReturn.setResident(rs.getInt(8));
+        lotToReturn.setStaff(rs.getInt(9));
+        lotToReturn.setVisitor(rs.getInt(10));
+        lotToReturn.setMotorcycle(rs.getInt(11));
+        lotToReturn.setOpen(rs.getString(12).equalsIgnoreCase("open"));
+        lotToReturn.setViolations(rs.getInt(13));
+        lotToReturn.setRecordTime(rs.getTimestamp(14).getTime());
         return lotToReturn;
     }
 
+    /**
+     * Method used to read the LotCurrent row of a lot.
+     * @param conn connection to use
+     * @param lotID name of the lot
+     * @return the lot with its version, or null if it does not exist
+     */
+    private ParkingLot readCurrent (Connection conn, String lotID) throws SQLException
+    {
+        try (PreparedStatement current = conn.prepareStatement("SELECT * FROM LotCurrent WHERE Lot_ID = ?"))
+        {
+            current.setString(1, lotID);
+            try (ResultSet rs = current.executeQuery())
+            {
+                if (!rs.next())
+                    return null;
+                ParkingLot lot = readLot(rs);
+                lot.setVersion(rs.getLong("Version"));
+                return lot;
+            }
+        }
+    }
+
+    /**
+     * Method used to lock the LotCurrent rows of lots until the
+     * transaction ends, with one statement per IN_LIST_SIZE lots.
+     * Used for the last attempt of a change that kept conflicting.
+     * @param conn connection to use, not in auto-commit mode
+     * @param lotIDs names of the lots to lock
+     */
+    private void lockCurrent (Connection conn, Collection<String> lotIDs) throws SQLException
+    {
+        List<String> ids = new ArrayList<String>(lotIDs);
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE)
+        {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + IN_LIST_SIZE));
+            int size = inListSize(chunk.size());
+            try (PreparedStatement lock = conn.prepareStatement(
+                    "UPDATE LotCurrent SET Version = Version WHERE Lot_ID IN " + inList(size)))
+            {
+                for (int i = 0; i < size; i++)
+                    lock.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                lock.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Method used to apply a change to a lot's latest state.
+     * The change is computed from the cached state when it is known to
+     * be stored, and written only if the LotCurrent row still has that
+     * version. On a conflict the row is read again and the change
+     * re-applied; after maxRetries conflicts the row is locked first,
+     * so the last attempt cannot conflict.
+     * The history row and the new current state commit together.
+     * @param lotID name of the lot to change
+     * @param change applied to a copy of the lot's latest state
+     * @return the changed lot, or null if it does not exist or could not be saved
+     */
+    private ParkingLot applyChange (String lotID, Consumer<ParkingLot> change)
+    {
+        ParkingLot lot = cache.get(lotID);
+        if (lot != null && lot.getVersion() < 0)                            // e.g. a write-behind projection
+            lot = null;
+
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            conn.setAutoCommit(false);                                      // history and current state commit together
+            try (PreparedStatement update = conn.prepareStatement(UPDATE_CURRENT);
+                 PreparedStatement history = conn.prepareStatement(INSERT_HISTORY))
+            {
+                for (int attempt = 0; ; attempt++)
+                {
+                    if (attempt == maxRetries)
+                    {
+                        lockedWrites.incrementAndGet();
+                        lockCurrent(conn, Collections.singletonList(lotID));
+                        lot = null;
+                    }
+                    if (lot == null)
+                        lot = readCurrent(conn, lotID);
+                    if (lot == null)
+                    {
+                        conn.rollback();
+                        return null;                                        // lot does not exist
+                    }
+
+                    long expected = lot.getVersion();
+                    change.accept(lot);
+                    bindState(update, lot, 1);
+                    update.setString(14, lotID);
+                    update.setLong(15, expected);
+                    if (update.executeUpdate() == 1)
+                    {
+                        lot.setVersion(expected + 1);
+                        history.setString(1, lotID);
+                        bindState(history, lot, 2);
+                        history.executeUpdate();
+                        conn.commit();                                      // and send it to the tables
+                        cache.put(lot);
+                        eligibility.update(lot);
+                        historyStore.append(lot);
+                        return lot;
+                    }
+
+                    conn.rollback();                                        // someone else changed the lot first
+                    if (attempt == 0)
+                        conflicts.incrementAndGet();
+                    retries.incrementAndGet();
+                    lot = null;
+                }
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
+        }
+        catch (SQLException s)
+        {
+            cache.invalidate(lotID);                                        // state of the lot is unknown now
+            System.out.println("sql exception in applyChange");
+            s.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of changes that found their lot changed by someone else
+     * @return the number of conflicting changes
+     */
+    public long getConflicts ()
+    {
+        return conflicts.get();
+    }
+
+    /**
+     * Returns the number of times a change was re-applied after a conflict
+     * @return the number of retries
+     */
+    public long getRetries ()
+    {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of changes that kept conflicting and locked their lots
+     * @return the number of locked writes
+     */
+    public long getLockedWrites ()
+    {
+        return lockedWrites.get();
+    }
+
+    /**
+     * Method used to read the latest state of every lot into the eligibility matrix.
+     */
+    private void loadEligibility ()
+    {
+        List<ParkingLot> lots = new ArrayList<ParkingLot>();
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement s = conn.createStatement();
+             ResultSet rs = s.executeQuery("SELECT * FROM LotCurrent"))
+        {
+            while (rs.next())
+            {
+                ParkingLot lot = readLot(rs);
+                lot.setVersion(rs.getLong("Version"));
+                lots.add(lot);
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in loadEligibility");
+            s.printStackTrace();
+        }
+        eligibility.load(lots);
+    }
+
+    /**
+     * Returns the permit eligibility of every lot, for the entrance gates.
+     * @return the eligibility matrix
+     */
+    public LotEligibility getEligibility ()
+    {
+        return eligibility;
+    }
+
+    /**
+     * Returns the lots with the most violations lately.
+     * @return the hotspot window
+     */
+    public ViolationHotspots getHotspots ()
+    {
+        return hotspots;
+    }
+
+    /**
+     * Returns the lots' history as columns, for range reports.
+     * @return the history store
+     */
+    public LotHistoryStore getHistory ()
+    {
+        return historyStore;
+    }
+
+    /**
+     * Returns the compressed archive of old history.
+     * @return the archive
+     */
+    public LotArchive getArchive ()
+    {
+        return archive;
+    }
+
+    /**
+     * Returns the lot cache, e.g. to read its statistics
+     * or to drop lots changed outside this manager.
+     * @return the lot cache
+     */
+    public LotCache getCache ()
+    {
+        return cache;
+    }
+
     /**
      * Method used to update a lot's number of cars and violations.
      * Creates a lot object from latest info
@@ -263,24 +733,461 @@ public class LotDBManager
      */
     public ParkingLot updateLot (String lotID, int numCars, int violations)
     {
-        ParkingLot tempLot = getLot(lotID);
+        return updateLot(new LotUpdate(lotID, numCars, violations));
+    }
 
-        if (tempLot == null)
+    /**
+     * Method used to apply one report to a lot.
+     * Return null if lot doesn't exist.
+     * @param update the report to apply
+     * @return ParkingLot object updated.
+     */
+    public ParkingLot updateLot (LotUpdate update)
+    {
+        ParkingLot lot = applyChange(update.getLotID(), update::applyTo);
+        if (lot != null)
+            hotspots.record(lot.getLotID(), lot.getRecordTime(), update.getViolations());
+        return lot;
+    }
+
+    /**
+     * Method used to apply many occupancy reports at once.
+     * The current state of every lot involved is read with one
+     * query, the reports are applied in order, the LotCurrent rows
+     * are replaced with one batch and the history rows are appended
+     * with another, all in a single transaction.
+     * If any lot changed in the meantime the whole batch is read and
+     * applied again; after maxRetries conflicts the lots are locked first.
+     * Reports for lots that do not exist are skipped.
+     * @param updates the reports to apply
+     * @return the updated lots by name, in the order first reported,
+     *         or null if the database failed and nothing was written
+     */
+    public Map<String, ParkingLot> updateLots (Collection<LotUpdate> updates)
+    {
+        Map<String, ParkingLot> lots = new LinkedHashMap<String, ParkingLot>();
+        if (updates.isEmpty())
+            return lots;
+
+        Set<String> lotIDs = new LinkedHashSet<String>();
+        for (LotUpdate u : updates)
+            lotIDs.add(u.getLotID());
+        List<ParkingLot> rows = new ArrayList<ParkingLot>(updates.size());   // history rows, for the history store
+
+        try (Connection conn = SimpleDataSource.getConnection())
         {
-            //System.out.println("Lot does not exist");
+            conn.setAutoCommit(false);                                      // everything commits together
+            try (PreparedStatement update = conn.prepareStatement(UPDATE_CURRENT);
+                 PreparedStatement history = conn.prepareStatement(INSERT_HISTORY))
+            {
+                for (int attempt = 0; ; attempt++)
+                {
+                    if (attempt == maxRetries)
+                    {
+                        lockedWrites.incrementAndGet();
+                        lockCurrent(conn, lotIDs);
+                    }
+                    lots.clear();
+                    rows.clear();
+                    Map<String, ParkingLot> found = readCurrent(conn, lotIDs);
+                    Map<String, Long> expected = new HashMap<String, Long>();
+                    for (String lotID : lotIDs)                             // keep the order the lots were reported
+                        if (found.containsKey(lotID))
+                        {
+                            lots.put(lotID, found.get(lotID));
+                            expected.put(lotID, found.get(lotID).getVersion());
+                        }
+
+                    for (LotUpdate u : updates)
+                    {
+                        ParkingLot tempLot = lots.get(u.getLotID());
+                        if (tempLot == null)
+                            continue;                                       // lot does not exist
+                        u.applyTo(tempLot);
+                        history.setString(1, tempLot.getLotID());
+                        bindState(history, tempLot, 2);
+                        history.addBatch();
+                        rows.add(new ParkingLot(tempLot));
+                    }
+
+                    for (ParkingLot tempLot : lots.values())
+                    {
+                        bindState(update, tempLot, 1);
+                        update.setString(14, tempLot.getLotID());
+                        update.setLong(15, expected.get(tempLot.getLotID()));
+                        update.addBatch();
+                    }
+                    boolean conflict = false;
+                    for (int count : update.executeBatch())
+                        conflict |= count == 0;
+                    if (!conflict)
+                    {
+                        history.executeBatch();
+                        conn.commit();
+                        break;
+                    }
+
+                    history.clearBatch();
+                    conn.rollback();                                        // someone else changed a lot first
+                    if (attempt == 0)
+                        conflicts.incrementAndGet();
+                    retries.incrementAndGet();
+                }
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
+            for (ParkingLot tempLot : lots.values())
+            {
+                tempLot.setVersion(tempLot.getVersion() + 1);
+                cache.put(tempLot);
+                eligibility.update(tempLot);
+            }
+            for (ParkingLot row : rows)
+                historyStore.append(row);
+            for (LotUpdate u : updates)
+                if (lots.containsKey(u.getLotID()))
+                    hotspots.record(u.getLotID(), lots.get(u.getLotID()).getRecordTime(), u.getViolations());
+        }
+        catch (SQLException s)
+        {
+            for (String lotID : lotIDs)
+                cache.invalidate(lotID);
+            System.out.println("sql exception in updateLots");
+            s.printStackTrace();
             return null;
         }
-        else
+        return lots;
+    }
+
+    /**
+     * Method used to store many violations at once, e.g. a handheld's upload.
+     * The tickets are inserted with one batch, each lot's Violations
+     * count is raised by the number of its new tickets, and a history
+     * row is appended for each of those lots, all in one transaction.
+     * Tickets for lots that do not exist, with a summary or ID that is
+     * too long or a photo key that is not one, or whose ID is already
+     * stored (an upload sent twice) are skipped. A ticket without an ID is given one.
+     * @param violations the tickets to store
+     * @return the number of tickets stored
+     */
+    public int addViolations (Collection<Violation> violations)
+    {
+        if (violations.isEmpty())
+            return 0;
+        Set<String> lotIDs = new LinkedHashSet<String>();
+        for (Violation v : violations)
+            lotIDs.add(v.getLotID());
+
+        Map<String, ParkingLot> lots;
+        int stored = 0;
+        try (Connection conn = SimpleDataSource.getConnection())
         {
-            if (tempLot.getTotal() < numCars)
-                tempLot.setTotal(numCars);
-            tempLot.setOccupied(numCars);
-            tempLot.setAvailable(tempLot.getTotal() - numCars);
-            tempLot.setRecordDate(new Date());
-            tempLot.setViolations(tempLot.getViolations() + violations);
-            addLot(tempLot);
+            conn.setAutoCommit(false);                                      // everything commits together
+            try (PreparedStatement insert = conn.prepareStatement(INSERT_VIOLATION);
+                 PreparedStatement count = conn.prepareStatement(ADD_VIOLATIONS);
+                 PreparedStatement history = conn.prepareStatement(INSERT_HISTORY))
+            {
+                Set<String> known = readCurrent(conn, lotIDs).keySet();
+                List<Violation> valid = new ArrayList<Violation>(violations.size());
+                for (Violation v : violations)
+                {
+                    if (v.getViolationID() == null || v.getViolationID().isEmpty())
+                        v.setViolationID(UUID.randomUUID().toString());
+                    if (known.contains(v.getLotID()) && v.getViolationID().length() <= Violation.MAX_ID
+                            && (v.getSummary() == null || v.getSummary().length() <= Violation.MAX_SUMMARY)
+                            && (v.getPhotoHash() == null || BlobStore.isKey(v.getPhotoHash())))
+                        valid.add(v);
+                }
+
+                List<Violation> inserted = valid;
+                try
+                {
+                    for (Violation v : valid)
+                    {
+                        bindViolation(insert, v);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+                catch (BatchUpdateException b)
+                {
+                    conn.rollback();
+                    if (!UserDBManager.isDuplicate(b))
+                        throw b;
+                    inserted = insertEach(insert, valid);                   // some tickets were sent before
+                }
+
+                Map<String, Integer> perLot = new LinkedHashMap<String, Integer>();
+                for (Violation v : inserted)
+                    perLot.merge(v.getLotID(), 1, Integer::sum);
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                for (Map.Entry<String, Integer> e : perLot.entrySet())
+                {
+                    count.setInt(1, e.getValue());
+                    count.setTimestamp(2, now);
+                    count.setString(3, e.getKey());
+                    count.addBatch();
+                }
+                count.executeBatch();
+
+                lots = readCurrent(conn, perLot.keySet());
+                for (ParkingLot tempLot : lots.values())
+                {
+                    history.setString(1, tempLot.getLotID());
+                    bindState(history, tempLot, 2);
+                    history.addBatch();
+                }
+                history.executeBatch();
+                conn.commit();
+                stored = inserted.size();
+                for (Violation v : inserted)
+                    hotspots.record(v.getLotID(), v.getRecordTime(), 1);
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
+            for (ParkingLot tempLot : lots.values())
+            {
+                cache.put(tempLot);
+                eligibility.update(tempLot);
+                historyStore.append(tempLot);
+            }
         }
-        return tempLot;
+        catch (SQLException s)
+        {
+            for (String lotID : lotIDs)
+                cache.invalidate(lotID);
+            System.out.println("sql exception in addViolations");
+            s.printStackTrace();
+            violationsRejected.addAndGet(violations.size());
+            return 0;
+        }
+        violationsStored.addAndGet(stored);
+        violationsRejected.addAndGet(violations.size() - stored);
+        return stored;
+    }
+
+    /**
+     * Method used to insert tickets one at a time, skipping IDs already stored.
+     * @param insert the insert statement, on a connection not in auto-commit mode
+     * @param violations the tickets to insert
+     * @return the tickets inserted
+     */
+    private List<Violation> insertEach (PreparedStatement insert, List<Violation> violations) throws SQLException
+    {
+        List<Violation> inserted = new ArrayList<Violation>(violations.size());
+        for (Violation v : violations)
+        {
+            try
+            {
+                bindViolation(insert, v);
+                insert.executeUpdate();
+                inserted.add(v);
+            }
+            catch (SQLException s)
+            {
+                if (!UserDBManager.isDuplicate(s))                          // only this statement is undone
+                    throw s;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Method used to set a ticket on the insert statement.
+     * @param insert the statement
+     * @param v the ticket
+     */
+    private void bindViolation (PreparedStatement insert, Violation v) throws SQLException
+    {
+        insert.setString(1, v.getViolationID());
+        insert.setString(2, v.getLotID());
+        insert.setString(3, v.getSummary());
+        insert.setTimestamp(4, new Timestamp(v.getRecordTime()));
+        insert.setString(5, v.getPhotoHash());
+    }
+
+    /**
+     * Method used to store one violation.
+     * @param v the ticket
+     * @return whether it was stored
+     */
+    public boolean addViolation (Violation v)
+    {
+        return addViolations(Collections.singletonList(v)) == 1;
+    }
+
+    /**
+     * Method used to read a lot's tickets, newest first, from the
+     * Violation table's (Lot_ID, Time DESC) index.
+     * @param lotID name of the lot
+     * @param since oldest time to return, in epoch milliseconds
+     * @param max largest number of tickets to return
+     * @return the tickets
+     */
+    public List<Violation> getViolations (String lotID, long since, int max)
+    {
+        List<Violation> violations = new ArrayList<Violation>();
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement("SELECT Violation_ID, Lot_ID, Summary, Time, " +
+                     "Photo_Hash FROM Violation WHERE Lot_ID = ? AND Time >= ? ORDER BY Time DESC"))
+        {
+            select.setMaxRows(Math.max(1, max));
+            select.setString(1, lotID);
+            select.setTimestamp(2, new Timestamp(since));
+            try (ResultSet rs = select.executeQuery())
+            {
+                while (rs.next())
+                {
+                    Violation v = new Violation(rs.getString(1), rs.getString(2), rs.getString(3),
+                            rs.getTimestamp(4).getTime());
+                    v.setPhotoHash(rs.getString(5));
+                    violations.add(v);
+                }
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in getViolations");
+            s.printStackTrace();
+        }
+        return violations;
+    }
+
+    /**
+     * Method used to set or clear the photo of a violation.
+     * A photo no violation refers to anymore is removed by the BlobStore's compactor.
+     * @param violationID ID of the violation
+     * @param photoHash BlobStore key of the photo, or null to remove it
+     * @return whether the violation exists
+     */
+    public boolean setViolationPhoto (String violationID, String photoHash)
+    {
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement update = conn.prepareStatement(
+                     "UPDATE Violation SET Photo_Hash = ? WHERE Violation_ID = ?"))
+        {
+            update.setString(1, photoHash);
+            update.setString(2, violationID);
+            return update.executeUpdate() == 1;
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in setViolationPhoto");
+            s.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Method used to read the keys of every photo a violation refers to,
+     * for the BlobStore's compactor.
+     * @return the keys, or null if they could not be read
+     */
+    public Set<String> getPhotoHashes ()
+    {
+        Set<String> hashes = new HashSet<String>();
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement s = conn.createStatement();
+             ResultSet rs = s.executeQuery("SELECT DISTINCT Photo_Hash FROM Violation WHERE Photo_Hash IS NOT NULL"))
+        {
+            while (rs.next())
+                hashes.add(rs.getString(1));
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in getPhotoHashes");
+            s.printStackTrace();
+            return null;                                                    // keep every photo rather than guess
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns the number of violations stored by addViolations
+     * @return the number of tickets stored
+     */
+    public long getViolationsStored ()
+    {
+        return violationsStored.get();
+    }
+
+    /**
+     * Returns the number of violations addViolations skipped
+     * @return the number of tickets rejected
+     */
+    public long getViolationsRejected ()
+    {
+        return violationsRejected.get();
+    }
+
+    /**
+     * Method used to read the LotCurrent rows of many lots,
+     * with one query per IN_LIST_SIZE lots.
+     * @param conn connection to use
+     * @param lotIDs names of the lots to read
+     * @return the lots found with their versions, by name
+     */
+    private Map<String, ParkingLot> readCurrent (Connection conn, Collection<String> lotIDs)
+            throws SQLException
+    {
+        Map<String, ParkingLot> lots = new HashMap<String, ParkingLot>();
+        List<String> ids = new ArrayList<String>(lotIDs);
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE)
+        {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + IN_LIST_SIZE));
+            int size = inListSize(chunk.size());
+            try (PreparedStatement current = conn.prepareStatement(
+                    "SELECT * FROM LotCurrent WHERE Lot_ID IN " + inList(size)))
+            {
+                for (int i = 0; i < size; i++)
+                    current.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                try (ResultSet rs = current.executeQuery())
+                {
+                    while (rs.next())
+                    {
+                        ParkingLot lot = readLot(rs);
+                        lot.setVersion(rs.getLong("Version"));
+                        lots.put(lot.getLotID(), lot);
+                    }
+                }
+            }
+        }
+        return lots;
+    }
+
+    /**
+     * Returns the "(?, ?, ...)" list of an IN (...) condition
+     * @param size number of parameters
+     * @return the parameter list
+     */
+    private static String inList (int size)
+    {
+        StringBuilder list = new StringBuilder("(?");
+        for (int i = 1; i < size; i++)
+            list.append(", ?");
+        return list.append(")").toString();
+    }
+
+    /**
+     * Returns the number of parameters of the IN (...) list used for
+     * count values: the smallest of a few fixed sizes that holds them.
+     * The values are padded by repeating the last one, so every list
+     * is one of a few statements the connection pool keeps prepared.
+     * @param count number of values, at most IN_LIST_SIZE
+     * @return the list size
+     */
+    private static int inListSize (int count)
+    {
+        for (int size : IN_LIST_SIZES)
+            if (count <= size)
+                return size;
+        return IN_LIST_SIZE;
     }
 
     /**
@@ -296,22 +1203,16 @@ public class LotDBManager
      */
     public ParkingLot updateLotCars (String lotID, int numCars)
     {
-        ParkingLot tempLot = getLot(lotID);
+        ParkingLot tempLot = applyChange(lotID, lot -> {
+            if (lot.getTotal() < numCars)
+                lot.setTotal(numCars);
+            lot.setOccupied(numCars);
+            lot.setAvailable(lot.getTotal() - numCars);
+            lot.setRecordTime(System.currentTimeMillis());
+        });
 
         if (tempLot == null)
-        {
             System.out.println("Lot does not exist");
-            return null;
-        }
-        else
-        {
-            if (tempLot.getTotal() < numCars)
-                tempLot.setTotal(numCars);
-            tempLot.setOccupied(numCars);
-            tempLot.setAvailable(tempLot.getTotal() - numCars);
-            tempLot.setRecordDate(new Date());
-            addLot(tempLot);
-        }
         return tempLot;
     }
 
@@ -328,60 +1229,55 @@ public class LotDBManager
      */
     public ParkingLot updateLotViolations (String lotID, int violations)
     {
-        ParkingLot tempLot = getLot(lotID);
-
-        if (tempLot == null)
-        {
-            //System.out.println("Lot does not exist");
-            return null;
-        }
-        else
-        {
-            tempLot.setViolations(violations);
-            tempLot.setRecordDate(new Date());
-            addLot(tempLot);
-        }
-        return tempLot;
+        return applyChange(lotID, lot -> {
+            lot.setViolations(violations);
+            lot.setRecordTime(System.currentTimeMillis());
+        });
     }
 
     /**
      * Method used to update a lot's space information.
      * Use Strings to classify spaces
      * - "resident", "staff", "motorcycle", ...
-     * Updates latest row.
-     * Return false if lot doesn't exist.
+     * Creates a lot object from latest info and adds
+     * it back with the new number of spaces.
+     * Return null if lot or category doesn't exist.
      * @param lotID    name of lot to find
      * @param category type of space
+     * @param numSpaces number of spaces of that type
      * @return ParkingLot object updated.
      */
     public ParkingLot updateLotSpaces (String lotID, String category, int numSpaces)
     {
-        String query = "UPDATE Lot SET " + category + " = ? " +
-                "WHERE Lot_ID = ? " +
-                "AND Time = (SELECT max(Time) FROM Lot WHERE Lot_ID = ?";
-
-        ParkingLot tempLot = getLot(lotID);
-        try
-        {
-            conn.setAutoCommit(false);                                      // disable automatic SQL statements for now
-
-            pStat = conn.prepareStatement(query);                           // prepare the statement
-            pStat.setInt(1, numSpaces);
-            pStat.setString(2, lotID);
-            pStat.setString(3, lotID);
-
-            pStat.executeUpdate();                                                      // update the statement
-            conn.commit();                                                              // and send it to the table
-
-            conn.setAutoCommit(true);                                               // turn on automatic SQL statements
-            //System.out.println("executed command");
-        }
-        catch (SQLException s)
+        Consumer<ParkingLot> setSpaces;
+        switch (category.toLowerCase())
         {
-            //System.out.println("lot does not exist");
-            return null;
+            case "reserved":
+                setSpaces = lot -> lot.setReserved(numSpaces);
+                break;
+            case "handicapped":
+                setSpaces = lot -> lot.setHandicapped(numSpaces);
+                break;
+            case "commuter":
+                setSpaces = lot -> lot.setCommuter(numSpaces);
+                break;
+            case "resident":
+                setSpaces = lot -> lot.setResident(numSpaces);
+                break;
+            case "staff":
+                setSpaces = lot -> lot.setStaff(numSpaces);
+                break;
+            case "visitor":
+                setSpaces = lot -> lot.setVisitor(numSpaces);
+                break;
+            case "motorcycle":
+                setSpaces = lot -> lot.setMotorcycle(numSpaces);
+                break;
+            default:
+                //System.out.println("category does not exist");
+                return null;
         }
-        return tempLot;
+        return applyChange(lotID, setSpaces.andThen(lot -> lot.setRecordTime(System.currentTimeMillis())));
     }
 
     /**
@@ -395,34 +1291,6 @@ public class LotDBManager
      */
     public ParkingLot updateLotStatus (String lotID, boolean isOpen)
     {
-        ParkingLot tempLot = getLot(lotID);
-
-        if (tempLot == null)
-        {
-            //System.out.println("Lot does not exist");
-            return null;
-        }
-        else
-        {
-            tempLot.setOpen(isOpen);
-            tempLot.setRecordDate(new Date());
-            addLot(tempLot);
-        }
-        return tempLot;
-    }
-
-    /**
-     * Method used show to close the connection
-     */
-    public void closeConnection()
-    {
-        try
-        {
-            conn.close();
-        }
-        catch (Exception e)
-        {
-            System.out.println("no connection open");
-        }
+        return updateLot(new LotUpdate(lotID, isOpen));
     }
 }
\ No newline at end of file
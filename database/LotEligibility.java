@@ -0,0 +1,228 @@
+package database;
+
+import objects.ParkingLot;
+import objects.PermitsTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * File Name: LotEligibility.java
+ * UWF Parking App
+ *
+ * This class answers the entrance gate's questions, "can this permit
+ * park in this lot" and "which open lots accept this permit", from
+ * memory instead of the database.
+ * Every lot gets an index, and for each PermitsTypes there is a bitset
+ * with one bit per lot that accepts it, next to a bitset of the open
+ * lots. Asking for the open lots accepting a type ANDs two bitsets,
+ * 64 lots per step.
+ * Readers use an immutable snapshot and never wait. LotDBManager
+ * hands over every lot it saves, and the snapshot is copied and
+ * replaced; a lot older than the one already held is ignored.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotEligibility
+{
+    /** the current state, replaced on every change */
+    private volatile Snapshot snapshot = new Snapshot(0);
+
+    /**
+     * Replaces every lot with the given ones.
+     * @param lots the lots' latest states
+     */
+    public synchronized void load (Collection<ParkingLot> lots)
+    {
+        Snapshot next = new Snapshot(lots.size());
+        for (ParkingLot lot : lots)
+            next.set(next.indexOf(lot.getLotID(), true), lot);
+        snapshot = next;
+    }
+
+    /**
+     * Records a lot's latest state, adding the lot if it is new.
+     * @param lot the lot as saved, with its version
+     */
+    public synchronized void update (ParkingLot lot)
+    {
+        Snapshot current = snapshot;
+        Integer i = current.index.get(lot.getLotID());
+        if (i != null && lot.getVersion() >= 0 && lot.getVersion() < current.versions[i])
+            return;                                                     // a newer state was already recorded
+        if (i != null && current.masks[i] == lot.getPermitMask() && current.isOpen(i) == lot.isOpen())
+        {
+            current.versions[i] = Math.max(current.versions[i], lot.getVersion());
+            return;                                                     // nothing a reader sees changed
+        }
+        Snapshot next = new Snapshot(current);
+        next.set(next.indexOf(lot.getLotID(), true), lot);
+        snapshot = next;
+    }
+
+    /**
+     * Tells whether a permit type may park in a lot, open or not.
+     * @param type the permit's type
+     * @param lotID name of the lot
+     * @return false if the lot is unknown or does not accept the type
+     */
+    public boolean canPark (PermitsTypes type, String lotID)
+    {
+        Snapshot s = snapshot;
+        int i = s.indexOf(lotID, false);
+        return i >= 0 && type.in(s.masks[i]);
+    }
+
+    /**
+     * Tells whether a permit type may enter a lot now: the lot
+     * accepts the type and is open.
+     * @param type the permit's type
+     * @param lotID name of the lot
+     * @return whether the gate should open
+     */
+    public boolean canEnter (PermitsTypes type, String lotID)
+    {
+        Snapshot s = snapshot;
+        int i = s.indexOf(lotID, false);
+        return i >= 0 && type.in(s.masks[i]) && s.isOpen(i);
+    }
+
+    /**
+     * Returns the open lots that accept a permit type.
+     * @param type the permit's type
+     * @return the lots' names
+     */
+    public List<String> openLotsAccepting (PermitsTypes type)
+    {
+        Snapshot s = snapshot;
+        long[] accepting = s.accepting[type.ordinal()];
+        List<String> lots = new ArrayList<String>();
+        for (int w = 0; w < s.open.length; w++)
+        {
+            long bits = accepting[w] & s.open[w];
+            while (bits != 0)
+            {
+                lots.add(s.ids[w * 64 + Long.numberOfTrailingZeros(bits)]);
+                bits &= bits - 1;                                       // clear the lowest bit
+            }
+        }
+        return lots;
+    }
+
+    /**
+     * Returns the permit types a lot accepts.
+     * @param lotID name of the lot
+     * @return a PermitsTypes mask, 0 if the lot is unknown
+     */
+    public int getPermitMask (String lotID)
+    {
+        Snapshot s = snapshot;
+        int i = s.indexOf(lotID, false);
+        return i < 0 ? 0 : s.masks[i];
+    }
+
+    /** Returns the number of lots known */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * The lots and their bitsets at one moment. What readers use is
+     * only changed before it is published; versions are only used
+     * by writers, under the lock.
+     */
+    private static class Snapshot
+    {
+        private final Map<String, Integer> index;
+        private String[] ids;
+        private int[] masks;
+        private long[] versions;
+        private long[] open;
+        private final long[][] accepting = new long[PermitsTypes.values().length][];
+        private int size;
+
+        /** Creates an empty snapshot with room for some lots */
+        private Snapshot (int capacity)
+        {
+            int words = Math.max(1, (capacity + 63) / 64);
+            index = new HashMap<String, Integer>();
+            ids = new String[words * 64];
+            masks = new int[words * 64];
+            versions = new long[words * 64];
+            open = new long[words];
+            for (int t = 0; t < accepting.length; t++)
+                accepting[t] = new long[words];
+        }
+
+        /** Copies a snapshot */
+        private Snapshot (Snapshot other)
+        {
+            index = new HashMap<String, Integer>(other.index);
+            ids = other.ids.clone();
+            masks = other.masks.clone();
+            versions = other.versions.clone();
+            open = other.open.clone();
+            for (int t = 0; t < accepting.length; t++)
+                accepting[t] = other.accepting[t].clone();
+            size = other.size;
+        }
+
+        /**
+         * Returns a lot's index.
+         * @param lotID name of the lot
+         * @param add whether to give an unknown lot the next index
+         * @return the index, or -1 if the lot is unknown and not added
+         */
+        private int indexOf (String lotID, boolean add)
+        {
+            Integer i = index.get(lotID);
+            if (i != null)
+                return i;
+            if (!add)
+                return -1;
+            if (size == ids.length)
+                grow();
+            index.put(lotID, size);
+            ids[size] = lotID;
+            versions[size] = -1;
+            return size++;
+        }
+
+        /** Doubles the room for lots */
+        private void grow ()
+        {
+            int words = open.length * 2;
+            ids = Arrays.copyOf(ids, words * 64);
+            masks = Arrays.copyOf(masks, words * 64);
+            versions = Arrays.copyOf(versions, words * 64);
+            open = Arrays.copyOf(open, words);
+            for (int t = 0; t < accepting.length; t++)
+                accepting[t] = Arrays.copyOf(accepting[t], words);
+        }
+
+        /** Sets a lot's bits from its state */
+        private void set (int i, ParkingLot lot)
+        {
+            int mask = lot.getPermitMask();
+            long bit = 1L << i;
+            masks[i] = mask;
+            versions[i] = lot.getVersion();
+            open[i >>> 6] = lot.isOpen() ? open[i >>> 6] | bit : open[i >>> 6] & ~bit;
+            for (PermitsTypes type : PermitsTypes.values())
+            {
+                long[] words = accepting[type.ordinal()];
+                words[i >>> 6] = type.in(mask) ? words[i >>> 6] | bit : words[i >>> 6] & ~bit;
+            }
+        }
+
+        /** Tells whether a lot is open */
+        private boolean isOpen (int i)
+        {
+            return (open[i >>> 6] & (1L << i)) != 0;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package database;
+
+import java.util.Arrays;
+/**
+ * File Name: LotHistoryCodec.java
+ * UWF Parking App
+ *
+ * This class packs Lot history rows into compressed blocks for the
+ * LotArchive table and reads them back, in the manner of Facebook's
+ * Gorilla time-series format.
+ * A row is its time, its counters in Lot column order (Total through
+ * Motorcycle, then Violations) and whether the lot was open.
+ * Times are stored as the change of their distance to the previous
+ * row: one 0 bit when reports are evenly spaced, a few bits when
+ * they are close to it. Each counter is one 0 bit when unchanged, or
+ * its change in as few bits as it needs, so a report where only the
+ * occupied spaces moved takes a few bytes instead of a full row.
+ * Open and closed are stored as runs in front of the rows.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotHistoryCodec
+{
+    /** number of counters in a row */
+    public static final int COUNTERS = 11;
+
+    /** positions of the counters reports use most */
+    public static final int TOTAL = 0;
+    public static final int AVAILABLE = 1;
+    public static final int OCCUPIED = 2;
+    public static final int VIOLATIONS = 10;
+
+    /** version of the block format */
+    private static final byte FORMAT = 1;
+
+    /**
+     * Receives the rows of a block, oldest first.
+     */
+    public interface Visitor
+    {
+        /**
+         * Called for each row.
+         * @param time the row's time in epoch milliseconds
+         * @param counters the row's counters, only valid during the call
+         * @param open whether the lot was open
+         */
+        void row (long time, int[] counters, boolean open);
+    }
+
+    /**
+     * Packs rows into a block. Rows are added in time order.
+     */
+    public static class Encoder
+    {
+        private final BitOutput bits = new BitOutput();
+        private final int[] previous = new int[COUNTERS];
+        private long previousTime;
+        private long previousDelta;
+        private int rows;
+
+        /** status runs: the first row's status, then the length of each run */
+        private boolean firstOpen;
+        private boolean lastOpen;
+        private int[] runs = new int[8];
+        private int numRuns;
+
+        /**
+         * Adds a row.
+         * @param time the row's time in epoch milliseconds, not before the previous row's
+         * @param counters the row's COUNTERS counters
+         * @param open whether the lot was open
+         */
+        public void add (long time, int[] counters, boolean open)
+        {
+            long delta = time - previousTime;
+            writeTime(rows == 0 ? time : delta - previousDelta);
+            if (rows > 0)
+                previousDelta = delta;
+            previousTime = time;
+            for (int c = 0; c < COUNTERS; c++)
+            {
+                long change = (long) counters[c] - previous[c];
+                if (change == 0)
+                    bits.write(0, 1);
+                else
+                {
+                    long z = zigzag(change);
+                    int length = 64 - Long.numberOfLeadingZeros(z);
+                    bits.write(1, 1);
+                    bits.write(length, 6);                              // at most 34 for an int's change
+                    bits.write(z, length - 1);                          // the top bit is always 1
+                }
+                previous[c] = counters[c];
+            }
+
+            if (rows == 0 || open != lastOpen)
+            {
+                if (rows == 0)
+                    firstOpen = open;
+                if (numRuns == runs.length)
+                    runs = Arrays.copyOf(runs, numRuns * 2);
+                runs[numRuns++] = 0;
+                lastOpen = open;
+            }
+            runs[numRuns - 1]++;
+            rows++;
+        }
+
+        /**
+         * Writes a time change: 0 for none, else a prefix giving how
+         * many bits follow, 7, 12, 20 or 64.
+         */
+        private void writeTime (long dod)
+        {
+            long z = zigzag(dod);
+            if (z == 0)
+                bits.write(0, 1);
+            else if (z < 1L << 7)
+            {
+                bits.write(0b10, 2);
+                bits.write(z, 7);
+            }
+            else if (z < 1L << 12)
+            {
+                bits.write(0b110, 3);
+                bits.write(z, 12);
+            }
+            else if (z < 1L << 20)
+            {
+                bits.write(0b1110, 4);
+                bits.write(z, 20);
+            }
+            else
+            {
+                bits.write(0b1111, 4);
+                bits.write(z, 64);
+            }
+        }
+
+        /** Returns the number of rows added */
+        public int size() {
+            return rows;
+        }
+
+        /**
+         * Returns the block: format, row count, status runs, then the rows' bits.
+         * @return the block's bytes
+         */
+        public byte[] toBytes ()
+        {
+            BitOutput header = new BitOutput();
+            header.write(FORMAT, 8);
+            writeVarint(header, rows);
+            header.write(firstOpen ? 1 : 0, 8);
+            writeVarint(header, numRuns);
+            for (int i = 0; i < numRuns; i++)
+                writeVarint(header, runs[i]);
+            byte[] head = header.toBytes();
+            byte[] body = bits.toBytes();
+            byte[] block = Arrays.copyOf(head, head.length + body.length);
+            System.arraycopy(body, 0, block, head.length, body.length);
+            return block;
+        }
+    }
+
+    /**
+     * Reads a block's rows back, oldest first.
+     * @param block bytes made by Encoder.toBytes
+     * @param visitor receives each row
+     * @return the number of rows read
+     * @throws IllegalArgumentException if the block is not in a known format
+     */
+    public static int decode (byte[] block, Visitor visitor)
+    {
+        BitInput in = new BitInput(block);
+        if (in.read(8) != FORMAT)
+            throw new IllegalArgumentException("unknown lot history block format");
+        int rows = (int) readVarint(in);
+        boolean open = in.read(8) != 0;
+        int numRuns = (int) readVarint(in);
+        int[] runs = new int[numRuns];
+        for (int i = 0; i < numRuns; i++)
+            runs[i] = (int) readVarint(in);
+
+        int[] counters = new int[COUNTERS];
+        long time = 0;
+        long delta = 0;
+        int run = 0;
+        int left = numRuns > 0 ? runs[0] : 0;
+        for (int r = 0; r < rows; r++)
+        {
+            long dod = unzigzag(readTime(in));
+            if (r == 0)
+                time = dod;
+            else
+            {
+                delta += dod;
+                time += delta;
+            }
+            for (int c = 0; c < COUNTERS; c++)
+                if (in.read(1) == 1)
+                {
+                    int length = (int) in.read(6);
+                    long z = (1L << (length - 1)) | in.read(length - 1);
+                    counters[c] += (int) unzigzag(z);
+                }
+            while (left == 0 && run < numRuns - 1)
+            {
+                left = runs[++run];
+                open = !open;
+            }
+            left--;
+            visitor.row(time, counters, open);
+        }
+        return rows;
+    }
+
+    /** Reads a time change written by Encoder.writeTime, still zigzagged */
+    private static long readTime (BitInput in)
+    {
+        if (in.read(1) == 0)
+            return 0;
+        if (in.read(1) == 0)
+            return in.read(7);
+        if (in.read(1) == 0)
+            return in.read(12);
+        if (in.read(1) == 0)
+            return in.read(20);
+        return in.read(64);
+    }
+
+    /** Maps small negative and positive numbers to small positive ones */
+    private static long zigzag (long n)
+    {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag (long z)
+    {
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    /** Writes a number in groups of 7 bits, the 8th bit set while more follow */
+    private static void writeVarint (BitOutput out, long n)
+    {
+        while ((n & ~0x7FL) != 0)
+        {
+            out.write((n & 0x7F) | 0x80, 8);
+            n >>>= 7;
+        }
+        out.write(n, 8);
+    }
+
+    private static long readVarint (BitInput in)
+    {
+        long n = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            long b = in.read(8);
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+    }
+
+    /**
+     * Bits written most significant first into a growing byte array.
+     */
+    private static class BitOutput
+    {
+        private byte[] bytes = new byte[64];
+        private long position;
+
+        /** Writes the low count bits of value, 0 to 64, up to a byte at a time */
+        private void write (long value, int count)
+        {
+            while (count > 0)
+            {
+                int index = (int) (position >>> 3);
+                if (index == bytes.length)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                int free = 8 - (int) (position & 7);
+                int take = Math.min(free, count);
+                int chunk = (int) (value >>> (count - take)) & ((1 << take) - 1);
+                bytes[index] |= (byte) (chunk << (free - take));
+                position += take;
+                count -= take;
+            }
+        }
+
+        private byte[] toBytes ()
+        {
+            return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+        }
+    }
+
+    /**
+     * Bits read most significant first from a byte array.
+     */
+    private static class BitInput
+    {
+        private final byte[] bytes;
+        private long position;
+
+        private BitInput (byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        /** Reads count bits, 0 to 64, up to a byte at a time */
+        private long read (int count)
+        {
+            long value = 0;
+            while (count > 0)
+            {
+                int index = (int) (position >>> 3);
+                if (index >= bytes.length)
+                    throw new IllegalArgumentException("lot history block is cut short");
+                int left = 8 - (int) (position & 7);
+                int take = Math.min(left, count);
+                int chunk = ((bytes[index] & 0xFF) >>> (left - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                position += take;
+                count -= take;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package database;
+
+import objects.ParkingLot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * File Name: LotHistoryStore.java
+ * UWF Parking App
+ *
+ * This class keeps each lot's history in memory as columns, for the
+ * reports over weeks or months: one long[] of times and int[]s of
+ * occupied spaces and violations, plus a bitset of when the lot was
+ * open. A point takes about 16 bytes instead of a ParkingLot and its
+ * row, so a lot reporting every minute fits a month in under 1 MB, and
+ * averages and maxima over a range are plain loops over arrays found
+ * by binary search.
+ * A lot's columns are read from the Lot table and the LotArchive the
+ * first time it is asked for, and LotDBManager appends every history
+ * row it commits to the lots already read. Points older than maxAgeMillis are not
+ * read and are dropped when the columns fill up.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotHistoryStore
+{
+    /** A lot's history rows, oldest first */
+    private static final String READ_HISTORY = "SELECT Time, Occupied, Violations, Status FROM Lot " +
+            "WHERE Lot_ID = ? AND Time >= ? ORDER BY Time";
+
+    /** most slices a chart may ask for */
+    private static final int MAX_SLICES = 10000;
+
+    /** points a lot's columns start with */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** the lots read so far */
+    private final Map<String, Series> lots = new ConcurrentHashMap<String, Series>();
+
+    /** age of the oldest point kept in milliseconds */
+    private final long maxAgeMillis;
+
+    /**
+     * Creates an empty store.
+     * @param maxAgeMillis age of the oldest point kept
+     */
+    public LotHistoryStore (long maxAgeMillis)
+    {
+        this.maxAgeMillis = Math.max(1, maxAgeMillis);
+    }
+
+    /**
+     * Adds a committed history row to its lot, if the lot was read already;
+     * otherwise the row is read with the rest when the lot is first asked for.
+     * A row the lot already holds is not added twice.
+     * @param lot the lot's state as written to the Lot table
+     */
+    public void append (ParkingLot lot)
+    {
+        Series s = lots.get(lot.getLotID());
+        if (s == null)
+            return;
+        synchronized (s)
+        {
+            s.add(lot.getRecordTime(), lot.getOccupied(), lot.getViolations(), lot.isOpen(),
+                    System.currentTimeMillis() - maxAgeMillis);
+        }
+    }
+
+    /**
+     * Returns a lot's columns, reading them from the Lot table the first time.
+     * @param lotID name of the lot
+     * @return the columns, or null if they could not be read
+     */
+    private Series series (String lotID)
+    {
+        Series s = lots.computeIfAbsent(lotID, id -> new Series());
+        synchronized (s)
+        {
+            if (s.loaded)
+                return s;
+            long oldest = System.currentTimeMillis() - maxAgeMillis;
+            try (Connection conn = SimpleDataSource.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(READ_HISTORY))
+            {
+                ps.setString(1, lotID);
+                ps.setTimestamp(2, new Timestamp(oldest));
+                try (ResultSet rs = ps.executeQuery())
+                {
+                    while (rs.next())                                   // rows appended meanwhile are skipped
+                        s.add(rs.getTimestamp(1).getTime(), rs.getInt(2), rs.getInt(3),
+                                "open".equalsIgnoreCase(rs.getString(4)), oldest);
+                }
+                // the archive is read second, so a day archived meanwhile is seen twice rather than missed
+                Series all = new Series();
+                LotArchive.scan(conn, lotID, oldest, Long.MAX_VALUE, (time, counters, open) ->
+                        all.add(time, counters[LotHistoryCodec.OCCUPIED], counters[LotHistoryCodec.VIOLATIONS],
+                                open, oldest));
+                for (int i = 0; i < s.size; i++)                        // mostly newer, so mostly appended
+                    all.add(s.times[i], s.occupied[i], s.violations[i], s.isOpen(i), oldest);
+                s.copy(all);
+                s.loaded = true;
+                return s;
+            }
+            catch (SQLException | IllegalArgumentException e)
+            {
+                lots.remove(lotID);
+                System.out.println("exception in reading lot history");
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of points a lot has in a range of time.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @return the number of points
+     */
+    public int count (String lotID, long from, long to)
+    {
+        Series s = series(lotID);
+        if (s == null)
+            return 0;
+        synchronized (s)
+        {
+            return Math.max(0, s.indexOf(to) - s.indexOf(from));
+        }
+    }
+
+    /**
+     * Returns a lot's most occupied spaces in a range of time.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @return the most occupied spaces, counting the state the range started in; 0 if there was none
+     */
+    public int maxOccupied (String lotID, long from, long to)
+    {
+        Series s = series(lotID);
+        if (s == null)
+            return 0;
+        synchronized (s)
+        {
+            int first = s.indexOf(from);
+            int end = s.indexOf(to);
+            int max = first > 0 ? s.occupied[first - 1] : 0;
+            for (int i = first; i < end; i++)
+                max = Math.max(max, s.occupied[i]);
+            return max;
+        }
+    }
+
+    /**
+     * Returns a lot's average occupied spaces over a range of time,
+     * each state weighted by how long it lasted. The range stops now
+     * if it ends later, and starts at the first point if it starts earlier.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @return the average, 0 if the lot has no points
+     */
+    public double averageOccupied (String lotID, long from, long to)
+    {
+        Series s = series(lotID);
+        if (s == null)
+            return 0;
+        synchronized (s)
+        {
+            int i = s.indexOf(from);
+            int end = s.indexOf(to);
+            long start;
+            if (i > 0)
+                start = from;                                           // the previous state still held at from
+            else if (i < end)
+                start = s.times[i++];
+            else
+                return 0;
+            long first = start;
+            int value = s.occupied[i - 1];
+            double sum = 0;
+            for (; i < end; i++)
+            {
+                sum += (double) value * (s.times[i] - start);
+                start = s.times[i];
+                value = s.occupied[i];
+            }
+            long stop = Math.max(start, Math.min(to, System.currentTimeMillis()));
+            sum += (double) value * (stop - start);
+            return stop > first ? sum / (stop - first) : value;
+        }
+    }
+
+    /**
+     * Returns how long a lot was open in a range of time.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @return the time open in milliseconds, up to now
+     */
+    public long openMillis (String lotID, long from, long to)
+    {
+        Series s = series(lotID);
+        if (s == null)
+            return 0;
+        synchronized (s)
+        {
+            int i = s.indexOf(from);
+            int end = s.indexOf(to);
+            long start;
+            if (i > 0)
+                start = from;
+            else if (i < end)
+                start = s.times[i++];
+            else
+                return 0;
+            boolean open = s.isOpen(i - 1);
+            long total = 0;
+            for (; i < end; i++)
+            {
+                if (open)
+                    total += s.times[i] - start;
+                start = s.times[i];
+                open = s.isOpen(i);
+            }
+            if (open)
+                total += Math.max(0, Math.min(to, System.currentTimeMillis()) - start);
+            return total;
+        }
+    }
+
+    /**
+     * Returns how many violations were added to a lot in a range of
+     * time: the sum of the rises of its count, so a count set lower
+     * again is not subtracted.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @return the number of violations added
+     */
+    public int newViolations (String lotID, long from, long to)
+    {
+        Series s = series(lotID);
+        if (s == null)
+            return 0;
+        synchronized (s)
+        {
+            int i = s.indexOf(from);
+            int end = s.indexOf(to);
+            int added = 0;
+            for (i = Math.max(1, i); i < end; i++)
+                added += Math.max(0, s.violations[i] - s.violations[i - 1]);
+            return added;
+        }
+    }
+
+    /**
+     * Returns a lot's most occupied spaces per slice of a range of time, for charts.
+     * @param lotID name of the lot
+     * @param from start of the range in epoch milliseconds, included
+     * @param to end of the range, excluded
+     * @param sliceMillis time covered by each slice
+     * @return the most occupied spaces in each slice, counting the state it started in
+     * @throws IllegalArgumentException if the slices are not positive or more than MAX_SLICES
+     */
+    public int[] maxOccupiedPerSlice (String lotID, long from, long to, long sliceMillis)
+    {
+        if (sliceMillis <= 0 || (to - from) / sliceMillis >= MAX_SLICES)
+            throw new IllegalArgumentException("at most " + MAX_SLICES + " slices");
+        int slices = (int) Math.max(0, (to - from + sliceMillis - 1) / sliceMillis);
+        int[] max = new int[slices];
+        Series s = series(lotID);
+        if (s == null || slices == 0)
+            return max;
+        synchronized (s)
+        {
+            int i = s.indexOf(from);
+            int end = s.indexOf(to);
+            int value = i > 0 ? s.occupied[i - 1] : 0;
+            for (int slice = 0; slice < slices; slice++)
+            {
+                long sliceEnd = from + (slice + 1) * sliceMillis;
+                int m = value;                                          // state the slice started in
+                for (; i < end && s.times[i] < sliceEnd; i++)
+                {
+                    value = s.occupied[i];
+                    m = Math.max(m, value);
+                }
+                max[slice] = m;
+            }
+            return max;
+        }
+    }
+
+    /** Returns the number of lots read */
+    public int size() {
+        return lots.size();
+    }
+
+    /** Returns the number of points held for every lot */
+    public long getPoints ()
+    {
+        long points = 0;
+        for (Series s : lots.values())
+            synchronized (s)
+            {
+                points += s.size;
+            }
+        return points;
+    }
+
+    /** Returns the memory used by the columns in bytes */
+    public long getSizeBytes ()
+    {
+        long bytes = 0;
+        for (Series s : lots.values())
+            synchronized (s)
+            {
+                bytes += 16L * s.times.length + s.open.length * 8L;
+            }
+        return bytes;
+    }
+
+    /**
+     * One lot's columns, oldest point first. Only used under its own lock.
+     */
+    private static class Series
+    {
+        private boolean loaded;
+        private int size;
+        private long[] times = new long[INITIAL_CAPACITY];
+        private int[] occupied = new int[INITIAL_CAPACITY];
+        private int[] violations = new int[INITIAL_CAPACITY];
+        private long[] open = new long[INITIAL_CAPACITY / 64];
+
+        /**
+         * Adds a point in time order, unless an equal one is held.
+         * @param oldest time before which points may be dropped to make room
+         */
+        private void add (long time, int occ, int vio, boolean isOpen, long oldest)
+        {
+            int at = indexOf(time + 1);                                 // after the points of the same time
+            for (int j = at - 1; j >= 0 && times[j] == time; j--)
+                if (occupied[j] == occ && violations[j] == vio && isOpen(j) == isOpen)
+                    return;                                             // already held
+            if (size == times.length)
+            {
+                at -= dropBefore(oldest);
+                if (at < 0)
+                    return;                                             // older than anything kept
+                if (size == times.length)
+                    grow();
+            }
+            if (at < size)                                              // late row, make room
+            {
+                System.arraycopy(times, at, times, at + 1, size - at);
+                System.arraycopy(occupied, at, occupied, at + 1, size - at);
+                System.arraycopy(violations, at, violations, at + 1, size - at);
+                for (int j = size; j > at; j--)
+                    setOpen(j, isOpen(j - 1));
+            }
+            times[at] = time;
+            occupied[at] = occ;
+            violations[at] = vio;
+            setOpen(at, isOpen);
+            size++;
+        }
+
+        /**
+         * Drops the points older than a time.
+         * @return the number of points dropped
+         */
+        private int dropBefore (long oldest)
+        {
+            int n = indexOf(oldest);
+            if (n == 0)
+                return 0;
+            size -= n;
+            System.arraycopy(times, n, times, 0, size);
+            System.arraycopy(occupied, n, occupied, 0, size);
+            System.arraycopy(violations, n, violations, 0, size);
+            for (int j = 0; j < size; j++)
+                setOpen(j, isOpen(j + n));
+            return n;
+        }
+
+        /** Takes over another series' points */
+        private void copy (Series other)
+        {
+            size = other.size;
+            times = other.times;
+            occupied = other.occupied;
+            violations = other.violations;
+            open = other.open;
+        }
+
+        /** Doubles the room for points */
+        private void grow ()
+        {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            occupied = Arrays.copyOf(occupied, capacity);
+            violations = Arrays.copyOf(violations, capacity);
+            open = Arrays.copyOf(open, capacity / 64);
+        }
+
+        /** Returns the index of the first point at or after a time, size if there is none */
+        private int indexOf (long time)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        private boolean isOpen (int i)
+        {
+            return (open[i >>> 6] & (1L << i)) != 0;
+        }
+
+        private void setOpen (int i, boolean isOpen)
+        {
+            open[i >>> 6] = isOpen ? open[i >>> 6] | (1L << i) : open[i >>> 6] & ~(1L << i);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package database;
+
+import objects.LotUpdate;
+import objects.ParkingLot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+/**
+ * File Name: LotWriteBehind.java
+ * UWF Parking App
+ *
+ * This class queues lot reports and writes them to the database
+ * from a background thread, so the caller does not wait for
+ * Derby to commit. Reports are written in batches through
+ * LotDBManager.updateLots, and several reports for the same lot
+ * can be merged into one row (coalescing).
+ * A batch the database fails to write is tried again a few times
+ * before its reports are given up and counted as failed.
+ * The queue is bounded: when it is full the caller waits a little
+ * and then writes its report itself (backpressure), once the
+ * reports already queued for that lot are written so the last
+ * report still wins. shutdown() writes everything still queued
+ * before returning.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotWriteBehind
+{
+    /** writes the batches */
+    private final LotDBManager lotDBManager;
+
+    /** reports waiting to be written */
+    private final BlockingQueue<LotUpdate> queue;
+
+    /** largest number of reports written at once */
+    private final int batchSize;
+
+    /** whether reports for the same lot are merged before writing */
+    private final boolean coalesce;
+
+    /** how long submit waits for room in a full queue */
+    private final long offerTimeoutMillis;
+
+    /** times a batch is tried before its reports are given up */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** number of queued reports not yet written, by lot name; lock on it to read or change */
+    private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+    /** drains the queue */
+    private final Thread writer;
+
+    /** set once shutdown starts, new reports are then written by the caller */
+    private volatile boolean closed = false;
+
+    /** held to read by submit from checking closed until its report is queued, to write by shutdown to set it */
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+    /** statistics */
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong callerWrites = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    /**
+     * Creates the queue and starts the writer thread.
+     * @param lotDBManager manager used to write the reports
+     * @param capacity largest number of queued reports
+     * @param batchSize largest number of reports written at once
+     * @param coalesce whether reports for the same lot are merged
+     * @param offerTimeoutMillis how long submit waits when the queue is full
+     */
+    public LotWriteBehind (LotDBManager lotDBManager, int capacity, int batchSize, boolean coalesce,
+                           long offerTimeoutMillis)
+    {
+        this.lotDBManager = lotDBManager;
+        this.queue = new ArrayBlockingQueue<LotUpdate>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.coalesce = coalesce;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.writer = new Thread(this::drain, "lot-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a report and returns the lot as it will be once the report is written.
+     * That state is also put in the lot cache so later lookups see the change.
+     * If the queue stays full for offerTimeoutMillis, or the queue is shut down,
+     * the report is written before returning instead.
+     * @param update report to write
+     * @return the updated lot, or null if the lot does not exist
+     */
+    public ParkingLot submit (LotUpdate update)
+    {
+        ParkingLot projected;
+        synchronized (pending)                                          // so a concurrent report for the lot builds on this one
+        {
+            projected = lotDBManager.getLot(update.getLotID());
+            if (projected == null)
+                return null;
+            update.applyTo(projected);
+            projected.setVersion(-1);                                   // not stored yet, changes must re-read the lot
+            pending.merge(update.getLotID(), 1, Integer::sum);          // the writer drops it once the count is back to 0
+            lotDBManager.getCache().put(projected);
+        }
+
+        boolean queued = false;
+        closing.readLock().lock();                                      // shutdown's last drain must see the report
+        try
+        {
+            if (!closed)
+                queued = queue.offer(update, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            closing.readLock().unlock();
+        }
+        if (!queued)
+        {
+            callerWrites.incrementAndGet();
+            done(update.getLotID(), 1);
+            awaitWritten(update.getLotID());                            // older reports for the lot go first
+            return lotDBManager.updateLot(update);                      // versioned, so it cannot undo the writer's batch
+        }
+
+        enqueued.incrementAndGet();
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        return projected;
+    }
+
+    /** Writes batches until shut down and the queue is empty */
+    private void drain ()
+    {
+        List<LotUpdate> batch = new ArrayList<LotUpdate>(batchSize);
+        while (!closed || !queue.isEmpty())
+        {
+            try
+            {
+                LotUpdate first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("exception in lot write-behind");
+                e.printStackTrace();
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes one batch, merging reports for the same lot if configured.
+     * @param batch reports in the order they were submitted
+     */
+    private void write (List<LotUpdate> batch)
+    {
+        try
+        {
+            List<LotUpdate> toWrite = batch;
+            if (coalesce)
+            {
+                Map<String, LotUpdate> merged = new LinkedHashMap<String, LotUpdate>();
+                for (LotUpdate u : batch)
+                    merged.merge(u.getLotID(), u, LotUpdate::merge);
+                coalesced.addAndGet(batch.size() - merged.size());
+                toWrite = new ArrayList<LotUpdate>(merged.values());
+            }
+            boolean stored = false;
+            for (int attempt = 1; !stored && attempt <= MAX_ATTEMPTS; attempt++)
+            {
+                stored = lotDBManager.updateLots(toWrite) != null;
+                if (!stored && attempt < MAX_ATTEMPTS)
+                    try
+                    {
+                        Thread.sleep(100L * attempt);                   // give the database a moment
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+            }
+            if (stored)
+                written.addAndGet(batch.size());
+            else
+            {
+                failed.addAndGet(batch.size());
+                System.out.println("lot write-behind gave up on " + batch.size() + " reports");
+            }
+            batches.incrementAndGet();
+        }
+        finally
+        {
+            Map<String, Integer> perLot = new HashMap<String, Integer>();
+            for (LotUpdate u : batch)
+                perLot.merge(u.getLotID(), 1, Integer::sum);
+            perLot.forEach(this::done);                                 // written or not, callers must not wait forever
+        }
+    }
+
+    /**
+     * Counts reports for a lot as no longer queued. Once none are left
+     * the lot's projection is dropped from the cache and callers waiting
+     * in awaitWritten go on.
+     * @param lotID name of the lot
+     * @param count number of reports
+     */
+    private void done (String lotID, int count)
+    {
+        synchronized (pending)
+        {
+            if (pending.merge(lotID, -count, Integer::sum) > 0)
+                return;
+            pending.remove(lotID);
+            lotDBManager.getCache().invalidate(lotID);
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every queued report for a lot is written or given up.
+     * @param lotID name of the lot
+     */
+    private void awaitWritten (String lotID)
+    {
+        synchronized (pending)
+        {
+            while (pending.containsKey(lotID))
+                try
+                {
+                    pending.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+        }
+    }
+
+    /**
+     * Stops taking new reports and waits until every queued report is written.
+     * Reports submitted afterwards are written by the caller.
+     */
+    public void shutdown ()
+    {
+        closing.writeLock().lock();                     // waits for reports being queued right now
+        try
+        {
+            closed = true;                              // the writer sees this within one poll; Derby must not be interrupted
+        }
+        finally
+        {
+            closing.writeLock().unlock();
+        }
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        // the writer is gone; write anything it left behind ourselves
+        List<LotUpdate> rest = new ArrayList<LotUpdate>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty())
+            write(rest);
+    }
+
+    /** Returns the number of reports waiting to be written */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /** Returns the largest number of reports that were waiting at once */
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /** Returns the number of reports queued */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /** Returns the number of queued reports written */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Returns the number of queued reports given up because the database failed */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** Returns the number of reports merged into another report for the same lot */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Returns the number of batches written */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /** Returns the number of reports the caller wrote because the queue was full or shut down */
+    public long getCallerWrites() {
+        return callerWrites.get();
+    }
+
+    /** Returns the queue statistics on one line */
+    public String toString()
+    {
+        return String.format("writeBehind[depth=%d, maxDepth=%d, enqueued=%d, written=%d, failed=%d, " +
+                        "coalesced=%d, batches=%d, callerWrites=%d]",
+                getDepth(), getMaxDepth(), getEnqueued(), getWritten(), getFailed(), getCoalesced(), getBatches(),
+                getCallerWrites());
+    }
+}
@@ -0,0 +1,311 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+/**
+ * File Name: PasswordHasher.java
+ * UWF Parking App
+ *
+ * This class hashes and checks passwords with salted PBKDF2 (HMAC-SHA256).
+ * A stored password looks like PBKDF2$iterations$salt$hash, so every
+ * user keeps the salt and cost it was hashed with and the cost can be
+ * raised at any time; older hashes are upgraded on the next login.
+ * Passwords stored before hashing was turned on are plain text and
+ * are still accepted.
+ * Hashing is slow on purpose, so it runs on a pool with one thread per
+ * core, never on the Swing thread or while holding a DB connection.
+ * When the pool's queue is full the caller hashes the password itself.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class PasswordHasher
+{
+    /** prefix of a hashed password */
+    private static final String PREFIX = "PBKDF2$";
+
+    /** a whole hashed password: prefix, iterations, salt and hash in Base64 */
+    private static final Pattern HASHED =
+            Pattern.compile("PBKDF2\\$[1-9][0-9]{0,8}\\$[A-Za-z0-9+/=]+\\$[A-Za-z0-9+/=]+");
+
+    /** bytes of random salt per password */
+    private static final int SALT_BYTES = 16;
+
+    /** salt hashed with when there is no stored password, only to take the same time */
+    private static final byte[] NO_SALT = new byte[SALT_BYTES];
+
+    /** bits of derived key */
+    private static final int KEY_BITS = 256;
+
+    /** makes the salts */
+    private static final SecureRandom random = new SecureRandom();
+
+    /** PBKDF2 iterations used for new hashes */
+    private volatile int iterations;
+
+    /** runs the hashing */
+    private final ThreadPoolExecutor pool;
+
+    /** statistics */
+    private final AtomicLong hashes = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Creates the hasher and its pool.
+     * @param iterations PBKDF2 iterations used for new hashes
+     * @param queueSize largest number of passwords waiting to be hashed
+     */
+    public PasswordHasher (int iterations, int queueSize)
+    {
+        setIterations(iterations);
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hashes a password with a new salt and the current cost.
+     * @param password the password
+     * @return the password to store
+     */
+    public String hash (String password)
+    {
+        return run(() -> encode(password));
+    }
+
+    /**
+     * Hashes many passwords at once, spread over the pool's threads.
+     * @param passwords the passwords
+     * @return the passwords to store, in the same order
+     */
+    public List<String> hashAll (List<String> passwords)
+    {
+        List<CompletableFuture<String>> hashed = new ArrayList<CompletableFuture<String>>(passwords.size());
+        for (String password : passwords)
+            hashed.add(CompletableFuture.supplyAsync(() -> {
+                try
+                {
+                    return encode(password);
+                }
+                catch (Exception e)
+                {
+                    throw new IllegalStateException("could not hash a password", e);
+                }
+            }, pool));
+        List<String> stored = new ArrayList<String>(passwords.size());
+        for (CompletableFuture<String> h : hashed)
+            stored.add(h.join());
+        return stored;
+    }
+
+    /**
+     * Hashes a password on the calling thread.
+     * @param password the password
+     * @return the password to store
+     */
+    private String encode (String password) throws Exception
+    {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int cost = iterations;
+        Base64.Encoder b64 = Base64.getEncoder();
+        return PREFIX + cost + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(derive(password, salt, cost));
+    }
+
+    /**
+     * Checks a password against a stored one.
+     * @param password the password entered
+     * @param stored the stored password, hashed or plain text
+     * @return whether they match, false if either is null
+     */
+    public boolean verify (String password, String stored)
+    {
+        verifications.incrementAndGet();
+        boolean match;
+        if (password == null || stored == null)
+            match = false;
+        else if (!isHashed(stored))                                     // stored before hashing was turned on
+            match = MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8));
+        else
+        {
+            String[] parts = stored.split("\\$");
+            try
+            {
+                int cost = Integer.parseInt(parts[1]);
+                byte[] salt = Base64.getDecoder().decode(parts[2]);
+                byte[] expected = Base64.getDecoder().decode(parts[3]);
+                match = MessageDigest.isEqual(expected, run(() -> derive(password, salt, cost)));
+            }
+            catch (IllegalArgumentException e)                          // damaged Base64
+            {
+                match = false;
+            }
+        }
+        if (!match)
+            failures.incrementAndGet();
+        return match;
+    }
+
+    /**
+     * Spends the time of checking a password against a hash at the
+     * current cost, for a user that does not exist, so how long a
+     * failed login takes does not tell whether the user exists.
+     * @param password the password entered
+     * @return false
+     */
+    public boolean verifyUnknown (String password)
+    {
+        verifications.incrementAndGet();
+        failures.incrementAndGet();
+        int cost = iterations;
+        run(() -> derive(password == null ? "" : password, NO_SALT, cost));
+        return false;
+    }
+
+    /**
+     * Tells whether a stored password should be hashed again,
+     * because it is plain text or was hashed with another cost.
+     * @param stored the stored password
+     * @return whether to hash it again
+     */
+    public boolean needsRehash (String stored)
+    {
+        return !isHashed(stored) || !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    /**
+     * Tells whether a stored password is hashed: it must have the whole
+     * PBKDF2$iterations$salt$hash form, since a plain text password
+     * may well start with the prefix.
+     * @param stored the stored password
+     * @return false for plain text
+     */
+    public static boolean isHashed (String stored)
+    {
+        return stored != null && stored.startsWith(PREFIX) && HASHED.matcher(stored).matches();
+    }
+
+    /**
+     * Runs a hash on the pool and waits for it.
+     * @param task the hash
+     * @return the hash's result
+     */
+    private <T> T run (Callable<T> task)
+    {
+        try
+        {
+            return pool.submit(task).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while hashing a password", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("could not hash a password", e.getCause());
+        }
+    }
+
+    /**
+     * Derives the PBKDF2 key of a password, timing it.
+     * @param password the password
+     * @param salt the salt
+     * @param cost number of iterations
+     * @return the derived key
+     */
+    private byte[] derive (String password, byte[] salt, int cost) throws Exception
+    {
+        long start = System.nanoTime();
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, KEY_BITS);
+        byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        long took = System.nanoTime() - start;
+        hashes.incrementAndGet();
+        hashNanos.addAndGet(took);
+        maxHashNanos.accumulateAndGet(took, Math::max);
+        return key;
+    }
+
+    /**
+     * Sets the cost of new hashes. Passwords hashed with another
+     * cost are hashed again the next time their user logs in.
+     * @param iterations PBKDF2 iterations
+     */
+    public void setIterations (int iterations)
+    {
+        if (iterations < 1)
+            throw new IllegalArgumentException("iterations must be positive");
+        this.iterations = iterations;
+    }
+
+    /** Returns the PBKDF2 iterations used for new hashes */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** Returns the number of passwords hashed, for storing or checking */
+    public long getHashes() {
+        return hashes.get();
+    }
+
+    /** Returns the average time of one hash in microseconds */
+    public long getAverageHashMicros() {
+        long n = hashes.get();
+        return n == 0 ? 0 : hashNanos.get() / n / 1000;
+    }
+
+    /** Returns the longest time of one hash in microseconds */
+    public long getMaxHashMicros() {
+        return maxHashNanos.get() / 1000;
+    }
+
+    /** Returns the number of passwords checked */
+    public long getVerifications() {
+        return verifications.get();
+    }
+
+    /** Returns the number of passwords that did not match */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /** Returns the number of passwords waiting to be hashed */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /** Returns the hashing statistics on one line */
+    public String toString()
+    {
+        return String.format("passwords[iterations=%d, threads=%d, hashes=%d, avgHash=%dus, maxHash=%dus, " +
+                        "verifications=%d, failures=%d, queued=%d]",
+                getIterations(), pool.getMaximumPoolSize(), getHashes(), getAverageHashMicros(),
+                getMaxHashMicros(), getVerifications(), getFailures(), getQueueDepth());
+    }
+}
@@ -0,0 +1,442 @@
+package database;
+
+import objects.Permit;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: PermitDBManager.java
+ * UWF Parking App
+ *
+ * This class holds the Permit table and SQL statements to read and add to it.
+ * Permits are keyed by Permit_ID, so gate checks are a primary key lookup,
+ * and indexed on (Expiration, Permit_ID) for the expiration sweeper.
+ * The sweeper runs in the background and marks ACTIVE permits past their
+ * date as EXPIRED, a chunk at a time. It walks the expiration index from
+ * where the previous chunk stopped, so a sweep only reads the permits
+ * that expired since the last one instead of the whole table.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class PermitDBManager
+{
+    /** Largest number of permits read by one IN (...) query */
+    private static final int IN_LIST_SIZE = 100;
+
+    /** Sizes IN (...) lists are padded to */
+    private static final int[] IN_LIST_SIZES = { 1, 10, 25, 50, IN_LIST_SIZE };
+
+    /**
+     * Next permits past their date, in index order, starting after (Expiration, Permit_ID).
+     * The Expiration >= ? bound repeats the cursor's date so Derby can start the index scan there.
+     */
+    private static final String NEXT_EXPIRED = "SELECT Permit_ID, Expiration FROM Permit " +
+            "WHERE Expiration < ? AND Expiration >= ? AND (Expiration > ? OR (Expiration = ? AND Permit_ID > ?)) " +
+            "AND Status = 'ACTIVE' ORDER BY Expiration, Permit_ID";
+
+    /** runs the sweeper, null until started */
+    private ScheduledExecutorService sweeper;
+
+    /** expiration date and ID of the last permit swept; the next sweep starts after it */
+    private long sweptTime = 0;
+    private String sweptID = "";
+
+    /** statistics */
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private volatile long lastSweepMillis;
+
+    /**
+     * Default constructor that reads the properties file and initializes access to the database
+     * The Permit table and its index are created if they do not exist
+     */
+    public PermitDBManager ()
+    {
+        try
+        {
+            SimpleDataSource.init("database/database.properties");
+            try (Connection conn = SimpleDataSource.getConnection())
+            {
+                createTable(conn);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("exception in creating permit db manager");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Method used to create the Permit table and its indexes if they do not exist.
+     * A Permit table made by an older version (no key, no Status) gets
+     * a Status column and a unique index on Permit_ID instead.
+     * @param conn connection to use
+     */
+    static void createTable (Connection conn) throws SQLException
+    {
+        boolean exists;
+        try (ResultSet tables = conn.getMetaData().getTables(null, null, "PERMIT", null))
+        {
+            exists = tables.next();
+        }
+        try (Statement s = conn.createStatement())
+        {
+            if (!exists)
+            {
+                s.execute("CREATE TABLE Permit (Permit_ID VARCHAR(10) NOT NULL PRIMARY KEY, " +
+                        "Permit_Type VARCHAR(20), Expiration DATE, Status VARCHAR(10) DEFAULT 'ACTIVE')");
+                System.out.println("Permit table created");
+            }
+            else
+            {
+                try (ResultSet columns = conn.getMetaData().getColumns(null, null, "PERMIT", "STATUS"))
+                {
+                    if (!columns.next())
+                    {
+                        s.execute("ALTER TABLE Permit ADD COLUMN Status VARCHAR(10) DEFAULT 'ACTIVE'");
+                        s.execute("UPDATE Permit SET Status = 'ACTIVE'");
+                    }
+                }
+                if (!hasIndex(conn, "PERMIT_ID") && !hasPrimaryKey(conn))
+                    s.execute("CREATE UNIQUE INDEX PERMIT_ID ON Permit (Permit_ID)");
+            }
+            if (!hasIndex(conn, "PERMIT_EXPIRATION"))
+            {
+                s.execute("CREATE INDEX PERMIT_EXPIRATION ON Permit (Expiration, Permit_ID)");
+                System.out.println("PERMIT_EXPIRATION index created");
+            }
+        }
+    }
+
+    /** Tells whether the Permit table has an index of that name */
+    private static boolean hasIndex (Connection conn, String indexName) throws SQLException
+    {
+        try (ResultSet indexes = conn.getMetaData().getIndexInfo(null, null, "PERMIT", false, false))
+        {
+            while (indexes.next())
+                if (indexName.equals(indexes.getString("INDEX_NAME")))
+                    return true;
+        }
+        return false;
+    }
+
+    /** Tells whether the Permit table has a primary key */
+    private static boolean hasPrimaryKey (Connection conn) throws SQLException
+    {
+        try (ResultSet keys = conn.getMetaData().getPrimaryKeys(null, null, "PERMIT"))
+        {
+            return keys.next();
+        }
+    }
+
+    /**
+     * Method used to add permits or replace stored ones with the same ID,
+     * with one batch of updates and one of inserts in a single transaction.
+     * A permit already past its date is stored as EXPIRED.
+     * @param permits the permits to store
+     * @return whether they were stored
+     */
+    public boolean addPermits (Collection<Permit> permits)
+    {
+        if (permits.isEmpty())
+            return true;
+        long today = today();
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            conn.setAutoCommit(false);                                      // all permits commit together
+            try (PreparedStatement update = conn.prepareStatement(
+                         "UPDATE Permit SET Permit_Type = ?, Expiration = ?, Status = ? WHERE Permit_ID = ?");
+                 PreparedStatement insert = conn.prepareStatement(
+                         "INSERT INTO Permit (Permit_Type, Expiration, Status, Permit_ID) VALUES (?, ?, ?, ?)"))
+            {
+                List<Permit> list = new ArrayList<Permit>(permits);
+                for (Permit p : list)
+                {
+                    bind(update, p, today);
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                boolean inserts = false;
+                for (int i = 0; i < counts.length; i++)
+                    if (counts[i] == 0)                                     // a new permit
+                    {
+                        bind(insert, list.get(i), today);
+                        insert.addBatch();
+                        inserts = true;
+                    }
+                if (inserts)
+                    insert.executeBatch();
+                conn.commit();
+            }
+            catch (SQLException s)
+            {
+                conn.rollback();
+                throw s;
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in addPermits");
+            s.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method used to add a permit or replace the stored one with the same ID.
+     * @param p permit to store
+     * @return whether it was stored
+     */
+    public boolean addPermit (Permit p)
+    {
+        List<Permit> one = new ArrayList<Permit>(1);
+        one.add(p);
+        return addPermits(one);
+    }
+
+    /**
+     * Method used to set a permit on an update or insert, ending with Permit_ID.
+     * @param ps statement to fill in
+     * @param p permit to take the values from
+     * @param today the current date, to store past permits as EXPIRED
+     */
+    private void bind (PreparedStatement ps, Permit p, long today) throws SQLException
+    {
+        long expiration = p.getExpirationTime();
+        boolean active = p.isActive() && expiration != Permit.NO_EXPIRATION && expiration >= today;
+        ps.setString(1, p.getType());
+        ps.setDate(2, expiration == Permit.NO_EXPIRATION ? null : new java.sql.Date(expiration));
+        ps.setString(3, active ? "ACTIVE" : "EXPIRED");
+        ps.setString(4, p.getId());
+    }
+
+    /**
+     * Method used to create a Permit object from the Permit table.
+     * @param permitID ID of the permit
+     * @return the permit, or null if it does not exist
+     */
+    public Permit getPermit (String permitID)
+    {
+        List<String> one = new ArrayList<String>(1);
+        one.add(permitID);
+        return getPermits(one).get(permitID);
+    }
+
+    /**
+     * Method used to read many permits, with one query per IN_LIST_SIZE IDs.
+     * @param permitIDs IDs of the permits
+     * @return the permits found, by ID
+     */
+    public Map<String, Permit> getPermits (Collection<String> permitIDs)
+    {
+        Map<String, Permit> permits = new HashMap<String, Permit>();
+        List<String> ids = new ArrayList<String>(permitIDs);
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            for (int from = 0; from < ids.size(); from += IN_LIST_SIZE)
+            {
+                List<String> chunk = ids.subList(from, Math.min(ids.size(), from + IN_LIST_SIZE));
+                int size = inListSize(chunk.size());
+                StringBuilder query = new StringBuilder(
+                        "SELECT Permit_ID, Permit_Type, Expiration, Status FROM Permit WHERE Permit_ID IN (?");
+                for (int i = 1; i < size; i++)
+                    query.append(", ?");
+                query.append(")");
+                try (PreparedStatement select = conn.prepareStatement(query.toString()))
+                {
+                    for (int i = 0; i < size; i++)
+                        select.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    try (ResultSet rs = select.executeQuery())
+                    {
+                        while (rs.next())
+                        {
+                            Permit p = new Permit();
+                            p.setId(rs.getString(1));
+                            p.setType(rs.getString(2));
+                            java.sql.Date expiration = rs.getDate(3);
+                            p.setExpirationTime(expiration == null ? Permit.NO_EXPIRATION : expiration.getTime());
+                            p.setActive("ACTIVE".equals(rs.getString(4)));
+                            permits.put(p.getId(), p);
+                        }
+                    }
+                }
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in getPermits");
+            s.printStackTrace();
+        }
+        return permits;
+    }
+
+    /**
+     * Method used by gate checks: is the permit active and not past its date.
+     * @param permitID ID of the permit
+     * @return whether the permit may be used today
+     */
+    public boolean isValid (String permitID)
+    {
+        Permit p = getPermit(permitID);
+        return p != null && p.isActive() && p.getExpirationTime() != Permit.NO_EXPIRATION
+                && p.getExpirationTime() >= today();
+    }
+
+    /**
+     * Method used to mark every ACTIVE permit past its date as EXPIRED.
+     * Works through the expiration index chunkSize permits at a time,
+     * committing each chunk, starting after the last permit swept before.
+     * @param chunkSize number of permits expired per transaction
+     * @return the number of permits expired
+     */
+    public synchronized int sweepExpired (int chunkSize)
+    {
+        long start = System.currentTimeMillis();
+        java.sql.Date today = new java.sql.Date(today());
+        int total = 0;
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement next = conn.prepareStatement(NEXT_EXPIRED);
+             PreparedStatement expire = conn.prepareStatement(
+                     "UPDATE Permit SET Status = 'EXPIRED' WHERE Permit_ID = ? AND Status = 'ACTIVE'"))
+        {
+            next.setMaxRows(Math.max(1, chunkSize));
+            conn.setAutoCommit(false);
+            while (true)
+            {
+                java.sql.Date after = new java.sql.Date(sweptTime);
+                next.setDate(1, today);
+                next.setDate(2, after);
+                next.setDate(3, after);
+                next.setDate(4, after);
+                next.setString(5, sweptID);
+                List<String> ids = new ArrayList<String>();
+                long lastTime = 0;
+                try (ResultSet rs = next.executeQuery())
+                {
+                    while (rs.next())
+                    {
+                        ids.add(rs.getString(1));
+                        lastTime = rs.getDate(2).getTime();
+                    }
+                }
+                if (ids.isEmpty())
+                    break;
+
+                for (String id : ids)
+                {
+                    expire.setString(1, id);
+                    expire.addBatch();
+                }
+                expire.executeBatch();
+                conn.commit();
+                sweptTime = lastTime;                                       // the next chunk starts after this permit
+                sweptID = ids.get(ids.size() - 1);
+                total += ids.size();
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in sweepExpired");
+            s.printStackTrace();
+        }
+        sweeps.incrementAndGet();
+        expired.addAndGet(total);
+        lastSweepMillis = System.currentTimeMillis() - start;
+        return total;
+    }
+
+    /**
+     * Starts sweeping expired permits in the background.
+     * @param periodMillis time between the end of one sweep and the start of the next
+     * @param chunkSize number of permits expired per transaction
+     */
+    public synchronized void startSweeper (long periodMillis, int chunkSize)
+    {
+        if (sweeper != null)
+            return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "permit-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> sweepExpired(chunkSize), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background sweeper, letting a running sweep finish.
+     */
+    public void stopSweeper ()
+    {
+        ScheduledExecutorService running;
+        synchronized (this)                                                 // not while waiting: sweepExpired locks it too
+        {
+            running = sweeper;
+            sweeper = null;
+        }
+        if (running == null)
+            return;
+        running.shutdown();                                                 // Derby must not be interrupted
+        try
+        {
+            running.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of parameters of the IN (...) list used for
+     * count IDs: the smallest of a few fixed sizes that holds them.
+     * The IDs are padded by repeating the last one, so every list is
+     * one of a few statements the connection pool keeps prepared.
+     * @param count number of IDs, at most IN_LIST_SIZE
+     * @return the list size
+     */
+    private static int inListSize (int count)
+    {
+        for (int size : IN_LIST_SIZES)
+            if (count <= size)
+                return size;
+        return IN_LIST_SIZE;
+    }
+
+    /** Returns the start of the current day in epoch milliseconds */
+    private static long today ()
+    {
+        return LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** Returns the number of sweeps run */
+    public long getSweeps() {
+        return sweeps.get();
+    }
+
+    /** Returns the number of permits the sweeper expired */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /** Returns how long the last sweep took in milliseconds */
+    public long getLastSweepMillis() {
+        return lastSweepMillis;
+    }
+}
@@ -1,6 +1,5 @@
 package database;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -11,6 +10,8 @@ import java.util.Properties;
  * UWF Parking App
  *
  * Simple class to connect to the database.
+ * Connections come from a bounded ConnectionPool; closing
+ * a connection gives it back to the pool.
  *
  * @version 1.0
  */
@@ -19,18 +20,27 @@ public class SimpleDataSource
    private static String url;
    private static String username;
    private static String password;
+   private static ConnectionPool pool;
+   private static Properties properties = new Properties();
 
    /**
       Initializes the data source.
+      Only the first call opens the pool, later calls reuse it.
       @param fileName the name of the property file that 
-      contains the database driver, URL, username, and password
+      contains the database driver, URL, username, password
+      and the pool settings
    */
-   public static void init(String fileName)
-         throws IOException, ClassNotFoundException
+   public static synchronized void init(String fileName)
+         throws IOException, ClassNotFoundException, SQLException
    {  
+      if (pool != null)
+         return;
+
       Properties props = new Properties();
-      FileInputStream in = new FileInputStream(fileName);
-      props.load(in);
+      try (FileInputStream in = new FileInputStream(fileName))
+      {
+         props.load(in);
+      }
 
       String driver = props.getProperty("jdbc.driver");
       url = props.getProperty("jdbc.url");
@@ -40,25 +50,73 @@ public class SimpleDataSource
       if (password == null) password = "";
       if (driver != null)
          Class.forName(driver);
+      properties = props;
+
+      pool = new ConnectionPool(url, username, password,
+            Integer.parseInt(props.getProperty("pool.minSize", "1")),
+            Integer.parseInt(props.getProperty("pool.maxSize", "10")),
+            Long.parseLong(props.getProperty("pool.maxWaitMillis", "5000")),
+            Long.parseLong(props.getProperty("pool.idleTimeoutMillis", "300000")),
+            Long.parseLong(props.getProperty("pool.leakThresholdMillis", "60000")),
+            props.getProperty("pool.validationQuery"),
+            Integer.parseInt(props.getProperty("pool.statementCacheSize", "0")));
    }
 
    /**
       Gets a connection to the database.
+      Close it to give it back to the pool.
       @return the database connection
    */
    public static Connection getConnection() throws SQLException
    {
-      return DriverManager.getConnection(url, username, password);
+      ConnectionPool p = pool;
+      if (p == null)
+         throw new SQLException("SimpleDataSource.init has not been called");
+      return p.borrow();
    }
-}
-
-
-
-
-
-
-
 
+   /**
+      Gets a setting from the property file given to init.
+      @param key the name of the setting
+      @param defaultValue value used when the setting is missing
+      @return the setting's value
+   */
+   public static String getProperty(String key, String defaultValue)
+   {
+      return properties.getProperty(key, defaultValue);
+   }
 
+   /**
+      Gets a numeric setting from the property file given to init.
+      @param key the name of the setting
+      @param defaultValue value used when the setting is missing
+      @return the setting's value
+   */
+   public static int getIntProperty(String key, int defaultValue)
+   {
+      String value = properties.getProperty(key);
+      return value == null ? defaultValue : Integer.parseInt(value.trim());
+   }
 
+   /**
+      Gets the connection pool, e.g. to read its statistics.
+      @return the pool, or null before init
+   */
+   public static ConnectionPool getPool()
+   {
+      return pool;
+   }
 
+   /**
+      Closes the pooled connections.
+      The next call to init opens a new pool.
+   */
+   public static synchronized void shutdown()
+   {
+      if (pool != null)
+      {
+         pool.shutdown();
+         pool = null;
+      }
+   }
+}
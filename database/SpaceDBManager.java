@@ -0,0 +1,228 @@
+package database;
+
+import objects.ParkingLot;
+import objects.SpaceMap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: SpaceDBManager.java
+ * UWF Parking App
+ *
+ * This class holds the LotSpaces table, where lots with per-stall
+ * sensors keep a SpaceMap: one bit per stall instead of only counts.
+ * Each lot's map is one row holding its bytes, a few hundred per lot,
+ * and is kept in memory once read, so counting free stalls or finding
+ * a free stall for a permit never touches the database.
+ * Sensor readings flip bits in memory; the map is then written back and
+ * the lot's occupied count set from it through LotDBManager, so lots
+ * without sensors and the reports keep working from the counts.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class SpaceDBManager
+{
+    /** Replaces a lot's map */
+    private static final String UPDATE_SPACES = "UPDATE LotSpaces SET Stalls = ?, Time = ? WHERE Lot_ID = ?";
+
+    /** Adds a lot's map */
+    private static final String INSERT_SPACES = "INSERT INTO LotSpaces (Stalls, Time, Lot_ID) VALUES (?, ?, ?)";
+
+    /** keeps the lots' counts in step with their maps */
+    private final LotDBManager lotDBManager;
+
+    /** maps read or made so far, by lot name */
+    private final Map<String, SpaceMap> maps = new ConcurrentHashMap<String, SpaceMap>();
+
+    /** statistics */
+    private final AtomicLong readings = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * Constructor that initializes access to the database.
+     * The LotSpaces table is created if it does not exist
+     * @param lotDBManager manager of the lots whose stalls are kept
+     */
+    public SpaceDBManager (LotDBManager lotDBManager)
+    {
+        this.lotDBManager = lotDBManager;
+        try
+        {
+            SimpleDataSource.init("database/database.properties");
+            try (Connection conn = SimpleDataSource.getConnection())
+            {
+                createTable(conn);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("exception in creating space db manager");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Method used to create the LotSpaces table if it does not exist.
+     * @param conn connection to use
+     */
+    private static void createTable (Connection conn) throws SQLException
+    {
+        try (ResultSet tables = conn.getMetaData().getTables(null, null, "LOTSPACES", null))
+        {
+            if (tables.next())
+                return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("CREATE TABLE LotSpaces (Lot_ID VARCHAR(3) NOT NULL PRIMARY KEY, " +
+                    "Stalls VARCHAR(32672) FOR BIT DATA, Time TIMESTAMP)");
+            System.out.println("LotSpaces table created");
+        }
+    }
+
+    /**
+     * Method used to give a lot a map of its stalls, laid out from its
+     * number of spaces per category, all free. A map the lot already
+     * had is replaced, e.g. after its categories changed.
+     * @param lotID name of the lot
+     * @return the new map, or null if the lot does not exist or could not be saved
+     */
+    public SpaceMap createSpaces (String lotID)
+    {
+        ParkingLot lot = lotDBManager.getLot(lotID);
+        if (lot == null)
+            return null;
+        SpaceMap map = new SpaceMap(lot);
+        synchronized (lockFor(lotID))
+        {
+            if (!save(lotID, map))
+                return null;
+            maps.put(lotID, map);
+            lotDBManager.updateLotCars(lotID, 0);
+        }
+        return map;
+    }
+
+    /**
+     * Method used to get a lot's map, read from the LotSpaces table the first time.
+     * @param lotID name of the lot
+     * @return the map, or null if the lot has none
+     */
+    public SpaceMap getSpaces (String lotID)
+    {
+        SpaceMap map = maps.get(lotID);
+        if (map != null)
+            return map;
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT Stalls FROM LotSpaces WHERE Lot_ID = ?"))
+        {
+            ps.setString(1, lotID);
+            try (ResultSet rs = ps.executeQuery())
+            {
+                if (!rs.next())
+                    return null;
+                map = SpaceMap.fromBytes(rs.getBytes(1));
+            }
+        }
+        catch (SQLException | IllegalArgumentException s)
+        {
+            System.out.println("exception in getSpaces");
+            s.printStackTrace();
+            return null;
+        }
+        SpaceMap known = maps.putIfAbsent(lotID, map);
+        return known != null ? known : map;
+    }
+
+    /**
+     * Method used to apply a stall sensor's reading. If the stall
+     * changed, the map is saved and the lot's occupied count set from it.
+     * @param lotID name of the lot
+     * @param stall number of the stall
+     * @param occupied whether a car is in the stall
+     * @return the lot's map, or null if the lot has none
+     */
+    public SpaceMap setOccupied (String lotID, int stall, boolean occupied)
+    {
+        SpaceMap map = getSpaces(lotID);
+        if (map == null)
+            return null;
+        synchronized (map)                                          // saves of one lot in the order they were made
+        {
+            if (maps.get(lotID) != map)
+                return setOccupied(lotID, stall, occupied);         // the map was replaced meanwhile
+            readings.incrementAndGet();
+            if (!(occupied ? map.occupy(stall) : map.release(stall)))
+                return map;                                         // the sensor said it again
+            changes.incrementAndGet();
+            if (save(lotID, map))
+                lotDBManager.updateLotCars(lotID, map.countOccupied());
+        }
+        return map;
+    }
+
+    /** Returns the object a lot's writes lock on: its map, or the table's for a new one */
+    private Object lockFor (String lotID)
+    {
+        SpaceMap map = maps.get(lotID);
+        return map != null ? map : maps;
+    }
+
+    /**
+     * Writes a lot's map to the LotSpaces table, adding its row if it is new.
+     * @param lotID name of the lot
+     * @param map the map
+     * @return whether it was saved
+     */
+    private boolean save (String lotID, SpaceMap map)
+    {
+        byte[] bytes = map.toBytes();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement update = conn.prepareStatement(UPDATE_SPACES))
+        {
+            update.setBytes(1, bytes);
+            update.setTimestamp(2, now);
+            update.setString(3, lotID);
+            if (update.executeUpdate() == 0)
+                try (PreparedStatement insert = conn.prepareStatement(INSERT_SPACES))
+                {
+                    insert.setBytes(1, bytes);
+                    insert.setTimestamp(2, now);
+                    insert.setString(3, lotID);
+                    insert.executeUpdate();
+                }
+            return true;
+        }
+        catch (SQLException s)
+        {
+            maps.remove(lotID);                                     // read it again from what was saved
+            System.out.println("sql exception in save");
+            s.printStackTrace();
+            return false;
+        }
+    }
+
+    /** Returns the number of sensor readings applied */
+    public long getReadings() {
+        return readings.get();
+    }
+
+    /** Returns the number of readings that changed a stall */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /** Returns the number of lots whose map is in memory */
+    public int size() {
+        return maps.size();
+    }
+}
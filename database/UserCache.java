@@ -0,0 +1,187 @@
+package database;
+
+import objects.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * File Name: UserCache.java
+ * UWF Parking App
+ *
+ * This class keeps recently used users in memory so repeated logins
+ * and lookups of the same user do not go to the database.
+ * Users are copied in and out, like in LotCache. Each user expires
+ * after a while so changes made outside this program are picked up,
+ * and when the cache is full the least recently used user is dropped.
+ * UserDBManager drops a user whenever it changes or adds one.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class UserCache
+{
+    /** the cached users by name */
+    private final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<String, Entry>();
+
+    /** largest number of users kept */
+    private final int maxSize;
+
+    /** how long a user is kept after being read */
+    private final long ttlMillis;
+
+    /** ticks on every access, used to find the least recently used user */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** counts invalidations, so a read that overlapped one is not cached */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param maxSize largest number of users kept
+     * @param ttlMillis how long a user is kept after being read
+     */
+    public UserCache (int maxSize, long ttlMillis)
+    {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns a copy of the cached user.
+     * @param name the username
+     * @return the user, or null if it is not cached or has expired
+     */
+    public User get (String name)
+    {
+        Entry e = users.get(name);
+        if (e != null && e.expires < System.currentTimeMillis())
+        {
+            users.remove(name, e);
+            e = null;
+        }
+        if (e == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        e.lastAccess = clock.incrementAndGet();
+        return new User(e.user);
+    }
+
+    /**
+     * Returns a stamp to take before reading a user from the database
+     * and to give back to putIfAbsent.
+     * @return the current stamp
+     */
+    public long stamp ()
+    {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a user that was just read from the database.
+     * Does nothing if the user is already cached, or if any user was
+     * invalidated since the stamp was taken, so a slow read cannot
+     * bring back what a concurrent change dropped.
+     * @param user the user as read
+     * @param stamp the stamp taken before reading
+     */
+    public void putIfAbsent (User user, long stamp)
+    {
+        Entry e = new Entry(new User(user), System.currentTimeMillis() + ttlMillis, clock.incrementAndGet());
+        if (users.putIfAbsent(user.getName(), e) == null && invalidations.get() != stamp)
+            users.remove(user.getName(), e);
+        trim();
+    }
+
+    /**
+     * Drops a user so the next lookup reads it from the database.
+     * @param name the username
+     */
+    public void invalidate (String name)
+    {
+        invalidations.incrementAndGet();
+        users.remove(name);
+    }
+
+    /** Drops every user */
+    public void invalidateAll ()
+    {
+        invalidations.incrementAndGet();
+        users.clear();
+    }
+
+    /** Drops the least recently used users until the cache fits */
+    private void trim ()
+    {
+        while (users.size() > maxSize)
+        {
+            String oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> e : users.entrySet())
+                if (e.getValue().lastAccess < oldestAccess)
+                {
+                    oldestAccess = e.getValue().lastAccess;
+                    oldest = e.getKey();
+                }
+            if (oldest != null && users.remove(oldest) != null)
+                evictions.incrementAndGet();
+        }
+    }
+
+    /** Returns the number of cached users */
+    public int size() {
+        return users.size();
+    }
+
+    /** Returns the largest number of users kept */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Returns the number of lookups served from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that went to the database */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of users dropped to keep the cache within its size */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Returns the cache statistics on one line */
+    public String toString()
+    {
+        return String.format("userCache[size=%d, max=%d, hits=%d, misses=%d, evictions=%d]",
+                size(), maxSize, getHits(), getMisses(), getEvictions());
+    }
+
+    /**
+     * A cached user, when it expires and when it was last used.
+     */
+    private static class Entry
+    {
+        private final User user;
+        private final long expires;
+        private volatile long lastAccess;
+
+        private Entry (User user, long expires, long lastAccess)
+        {
+            this.user = user;
+            this.expires = expires;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
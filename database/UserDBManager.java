@@ -6,10 +6,10 @@ import objects.UserPermissions;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.DatabaseMetaData;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * File Name: UserDBManager.java
  * UWF Parking App
@@ -17,26 +17,46 @@ import java.sql.SQLException;
  * This class holds user-related tables and SQL statements to add to them.
  * For now, all major User-related functionality is complete.
  * Password encryption and Permit options will be implemented on the next iterations
+ * Every method borrows its own connection and statements, so one
+ * manager can be used from several threads at once.
+ * Users are looked up with one query by User_Name and kept for a
+ * while in a UserCache, which addUser and updatePermissions invalidate.
+ * User names are also kept in a BloomFilter, so checking a name that
+ * is not taken usually needs no query; a unique index on User_Name
+ * stays the source of truth.
+ * When passwords.hash.enabled is set, passwords are stored salted and
+ * hashed by a PasswordHasher; plain text passwords stored earlier are
+ * hashed the next time their user logs in.
  *
  * @author Julien
  * @version 1.0
  */
 public class UserDBManager
 {
-    /** Used to access database */
-    private Connection conn;
+    /**
+     * Recently used users
+     */
+    private UserCache cache;
 
-    /** Used to issue general SQL statements */
-    private Statement stat;
+    /**
+     * Hashes and checks passwords
+     */
+    private PasswordHasher hasher;
 
-    /** Used for specific SQL statements */
-    private PreparedStatement pStat;
+    /**
+     * Whether new passwords are stored hashed
+     */
+    private boolean hashPasswords = false;
 
-    /** Used to store the results from a query */
-    private ResultSet result;
+    /**
+     * Names of all users, null until loaded
+     */
+    private volatile BloomFilter names;
 
-    /** Used to store properties of our results */
-    private ResultSetMetaData rsm;
+    /** statistics */
+    private final AtomicLong nameChecks = new AtomicLong();
+    private final AtomicLong nameChecksSkipped = new AtomicLong();
+    private final AtomicLong nameFalsePositives = new AtomicLong();
 
     /**
      * Default constructor that reads the properties file and initializes access to the database
@@ -49,9 +69,13 @@ public class UserDBManager
 
         try {
             SimpleDataSource.init("database/database.properties");
-            this.openConnection();
-            this.stat = this.conn.createStatement();
+            this.cache = new UserCache(SimpleDataSource.getIntProperty("cache.users.maxSize", 1024),
+                    SimpleDataSource.getIntProperty("cache.users.ttlMillis", 60000));
+            this.hasher = new PasswordHasher(SimpleDataSource.getIntProperty("passwords.iterations", 310000),
+                    SimpleDataSource.getIntProperty("passwords.queueSize", 64));
+            this.hashPasswords = Boolean.parseBoolean(SimpleDataSource.getProperty("passwords.hash.enabled", "false"));
             this.createTables(0);
+            this.loadNames();
             //this.createTables(1);
             this.addUser(s);
             //dropTables();
@@ -63,27 +87,31 @@ public class UserDBManager
     }
 
     /**
-     * Method used show to open the connection
+     * Returns the user cache, e.g. to read its statistics.
+     * @return the user cache
      */
-    public void openConnection ()
+    public UserCache getCache ()
     {
-        try
-        {
-            conn = SimpleDataSource.getConnection();
-        }
-        catch (Exception e)
-        {
-            System.out.println ("connection already open");
-        }
+        return cache;
+    }
+
+    /**
+     * Returns the password hasher, e.g. to read its statistics
+     * or to change the cost of new hashes.
+     * @return the password hasher
+     */
+    public PasswordHasher getHasher ()
+    {
+        return hasher;
     }
 
     /**
      * Method used drop the tables.
      */
     public void dropTables () {
-        try
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement stat = conn.createStatement())
         {
-            result.close();
             stat.execute("DROP TABLE Users");
             //stat.execute("DROP TABLE Permit");
         }
@@ -94,41 +122,41 @@ public class UserDBManager
     }
     /**
      * Method used to create the User tables.
-     * 0 - User, other - Permit
+     * 0 - User, other - Permit (made by PermitDBManager)
      * Always checks to makes sure the tables do not
      * exist before creating them.
+     * An older Users table has its User_Pass column widened
+     * to hold hashed passwords. The Users table always gets a
+     * unique index on User_Name.
      * @param tableToCreate the table specified for creation
      */
     public void createTables (int tableToCreate)
     {
-        try
+        String tableName = tableToCreate == 0 ? "USERS" : "PERMIT";
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement stat = conn.createStatement())
         {
-            this.conn.setAutoCommit(true);
-            DatabaseMetaData s = this.conn.getMetaData();
-            this.result = s.getTables(null, null, "%", null);
-
-            while(this.result.next())
+            try (ResultSet tables = conn.getMetaData().getTables(null, null, tableName, null))
             {
-                switch(tableToCreate)
+                if (tables.next())
                 {
-                    case 0:
-                        if(this.result.getString("TABLE_NAME").equals("USERS"))
-                            return;
-                        break;
-                    default:
-                        if(this.result.getString("TABLE_NAME").equals("PERMIT"))
-                            return;
+                    if (tableToCreate == 0)
+                    {
+                        widenColumn(conn, "USERS", "USER_PASS", 128);
+                        createNameIndex(conn);
+                    }
+                    return;
                 }
             }
             switch(tableToCreate)
             {
                 case 0:
-                    this.stat.execute("CREATE TABLE Users (User_Name VARCHAR(20), " +
-                            "User_Pass VARCHAR(20), Permit_ID VARCHAR(10), Permissions VARCHAR(15))");
+                    stat.execute("CREATE TABLE Users (User_Name VARCHAR(20), " +
+                            "User_Pass VARCHAR(128), Permit_ID VARCHAR(10), Permissions VARCHAR(15))");
+                    createNameIndex(conn);
                     break;
                 default:
-                    this.stat.execute("CREATE TABLE Permit (Permit_ID VARCHAR(10), " +
-                            "Permit_TYPE VARCHAR(20), Expiration DATE)");
+                    PermitDBManager.createTable(conn);
             }
         }
         catch (SQLException s)
@@ -138,145 +166,369 @@ public class UserDBManager
         }
     }
 
+    /**
+     * Method used to create the unique index on User_Name if it does not exist yet.
+     * If the table already holds duplicate names the index cannot be
+     * created; that is reported and addUser keeps checking names itself.
+     * @param conn connection to use
+     */
+    private void createNameIndex (Connection conn) throws SQLException
+    {
+        try (ResultSet indexes = conn.getMetaData().getIndexInfo(null, null, "USERS", true, false))
+        {
+            while (indexes.next())
+                if ("USERS_NAME".equals(indexes.getString("INDEX_NAME")))
+                    return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("CREATE UNIQUE INDEX USERS_NAME ON Users (User_Name)");
+            System.out.println("USERS_NAME index created");
+        }
+        catch (SQLException e)
+        {
+            if (!isDuplicate(e))
+                throw e;
+            System.out.println("Users has duplicate names, USERS_NAME index not created");
+        }
+    }
+
+    /**
+     * Method used to load every user name into the Bloom filter,
+     * reading the Users table as a stream of names.
+     * The filter is sized for twice the users found, or
+     * users.bloom.expected, whichever is larger.
+     */
+    private void loadNames ()
+    {
+        try (Connection conn = SimpleDataSource.getConnection();
+             Statement stat = conn.createStatement())
+        {
+            long users;
+            try (ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM Users"))
+            {
+                rs.next();
+                users = rs.getLong(1);
+            }
+            BloomFilter filter = new BloomFilter(
+                    Math.max(2 * users, SimpleDataSource.getIntProperty("users.bloom.expected", 100000)),
+                    Double.parseDouble(SimpleDataSource.getProperty("users.bloom.fpp", "0.01")));
+            this.names = filter;                                            // names added from now on are not missed
+            stat.setFetchSize(1000);
+            try (ResultSet rs = stat.executeQuery("SELECT User_Name FROM Users"))
+            {
+                while (rs.next())
+                    filter.add(rs.getString(1));
+            }
+        }
+        catch (SQLException s)
+        {
+            this.names = null;                                              // every check goes to the database
+            System.out.println("sql exception in loadNames");
+            s.printStackTrace();
+        }
+    }
+
+    /**
+     * Tells whether the Bloom filter may hold a name.
+     * @param uName username
+     * @return false if the name is definitely not taken
+     */
+    boolean mightExist (String uName)
+    {
+        BloomFilter filter = names;
+        nameChecks.incrementAndGet();
+        if (filter == null || filter.mightContain(uName))
+            return true;
+        nameChecksSkipped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Tells whether an exception is a unique index violation.
+     * @param s the exception
+     * @return true for a duplicate key
+     */
+    static boolean isDuplicate (SQLException s)
+    {
+        return "23505".equals(s.getSQLState());
+    }
+
+    /**
+     * Method used to check if a username is taken.
+     * Most names that are not taken are answered by the Bloom filter
+     * without a query.
+     * @param uName username
+     * @return whether a user has that name
+     */
+    public boolean userExists (String uName)
+    {
+        if (!mightExist(uName))
+            return false;
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            return nameTaken(conn, uName);
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in userExists");
+            s.printStackTrace();
+            return true;
+        }
+    }
+
+    /**
+     * Method used to look a username up in the Users table.
+     * @param conn connection to use
+     * @param uName username
+     * @return whether a user has that name
+     */
+    boolean nameTaken (Connection conn, String uName) throws SQLException
+    {
+        try (PreparedStatement exists = conn.prepareStatement("SELECT 1 FROM Users WHERE User_Name = ?"))
+        {
+            exists.setString(1, uName);
+            try (ResultSet rs = exists.executeQuery())
+            {
+                if (rs.next())
+                    return true;
+            }
+        }
+        if (names != null)
+            nameFalsePositives.incrementAndGet();
+        return false;
+    }
+
+    /** Returns the Bloom filter of user names, null if it could not be loaded */
+    public BloomFilter getNames() {
+        return names;
+    }
+
+    /** Returns the number of username checks */
+    public long getNameChecks() {
+        return nameChecks.get();
+    }
+
+    /** Returns the number of username checks the Bloom filter answered without a query */
+    public long getNameChecksSkipped() {
+        return nameChecksSkipped.get();
+    }
+
+    /** Returns the number of names the Bloom filter may have held but the database did not */
+    public long getNameFalsePositives() {
+        return nameFalsePositives.get();
+    }
+
+    /**
+     * Method used to make a VARCHAR column longer if it is shorter.
+     * @param conn connection to use
+     * @param tableName table to change (upper case)
+     * @param columnName column to widen (upper case)
+     * @param length new length
+     */
+    private void widenColumn (Connection conn, String tableName, String columnName, int length)
+            throws SQLException
+    {
+        try (ResultSet columns = conn.getMetaData().getColumns(null, null, tableName, columnName))
+        {
+            if (!columns.next() || columns.getInt("COLUMN_SIZE") >= length)
+                return;
+        }
+        try (Statement s = conn.createStatement())
+        {
+            s.execute("ALTER TABLE " + tableName + " ALTER COLUMN " + columnName +
+                    " SET DATA TYPE VARCHAR(" + length + ")");
+            System.out.println(columnName + " widened to " + length);
+        }
+    }
+
     /**
      * Method used to add to the User table.
      * Will also check to see if Username already exists
      * and return false if so.
+     * The name is only looked up when the Bloom filter may hold it;
+     * either way the unique index on User_Name turns away a name
+     * taken at the same time by someone else.
+     * The password is hashed first if hashing is enabled.
      * @param u User to add
-     * @return whether or not the user can create an account
+     * @return whether or not the user could create an account
      */
     public boolean addUser (User u)
     {
-        String query = "INSERT INTO Users VALUES (?, ?, ?, ?)";
-        try
+        String password = storedPassword(u.getUserID());                   // hash before taking a connection
+        try (Connection conn = SimpleDataSource.getConnection())
         {
-            //conn.setAutoCommit(false);
-            //pStat = conn.prepareStatement("SELECT 1 FROM Users WHERE User_Name = ?");
-            //pStat.setString(1, u.getName());
-            //boolean toAdd;
-
-            String query2 = String.format("SELECT * FROM Users WHERE User_Name = '%s'", u.getName());
-            result = stat.executeQuery(query2);
-
-            if (result.next())
+            if (mightExist(u.getName()) && nameTaken(conn, u.getName()))
             {
                 System.out.println("Username exists");
                 return false;
             }
-            else
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO Users VALUES (?, ?, ?, ?)"))
             {
-                conn.setAutoCommit(false);
-                pStat = conn.prepareStatement(query);                  // prepare the statement
-                pStat.setString(1, u.getName());
-                pStat.setString(2, u.getUserID());
-                pStat.setString(3, u.getPermit().getId());
-                pStat.setString(4, u.getPermissions().toString());
-
-                pStat.executeUpdate();                                                      // update the statement
-                conn.commit();                                                              // and send it to the table
-
-                conn.setAutoCommit(true);                                           // turn on automatic SQL statements
-                //System.out.println("executed command");
+                insert.setString(1, u.getName());
+                insert.setString(2, password);
+                insert.setString(3, u.getPermit().getId());
+                insert.setString(4, u.getPermissions().toString());
+                insert.executeUpdate();                                     // a single statement commits on its own
             }
+            addName(u.getName());
+            cache.invalidate(u.getName());
+            //System.out.println("executed command");
         }
         catch (SQLException s)
         {
+            if (isDuplicate(s))                                             // lost a race for the same name
+            {
+                addName(u.getName());
+                System.out.println("Username exists");
+                return false;
+            }
             System.out.println("sql exception in addUser");
             s.printStackTrace();
+            return false;
         }
         return true;
     }
 
+    /**
+     * Adds a name to the Bloom filter, if it is loaded.
+     * @param uName username
+     */
+    void addName (String uName)
+    {
+        BloomFilter filter = names;
+        if (filter != null)
+            filter.add(uName);
+    }
+
     /**
      * Method used to create a User object
      * from information in the User table.
+     * Recently used users come from the user cache.
      * @param uName username
      * @return user
      */
     public User getUser (String uName)
     {
-        User userToReturn = new User();
-        try
-        {
-            int cols;
-            String query = String.format("SELECT * FROM Users WHERE User_Name = '%s'", uName);
-
-            conn.setAutoCommit(true);                                               // turn on automatic SQL statements
+        User cached = cache.get(uName);
+        if (cached != null)
+            return cached;
 
-            result = stat.executeQuery(query);
-            rsm = result.getMetaData();
-            cols = rsm.getColumnCount();
-            if (!result.next())
-            {
-                //System.out.println("User does not exist");
-                return null;
-            }
-            result = stat.executeQuery(query);
-            rsm = result.getMetaData();
-            while (result.next())                          // should always be ONE User!
+        long stamp = cache.stamp();
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement query = conn.prepareStatement(
+                     "SELECT User_Name, User_Pass, Permit_ID, Permissions FROM Users WHERE User_Name = ?"))
+        {
+            query.setString(1, uName);
+            try (ResultSet rs = query.executeQuery())
             {
-                for (int i = 1; i <= cols; i++)
-                    switch (i)
-                    {
-                        case 1:
-                            userToReturn.setName(result.getString(i));
-                            break;
-                        case 2:
-                            userToReturn.setUserID(result.getString(i));
-                            break;
-                        case 3:
-                            userToReturn.getPermit().setId(result.getString(i));
-                            break;
-                        case 4:
-                            userToReturn.setPermissions(UserPermissions.valueOf(result.getString(i)));
-                            break;
-                    }
+                if (!rs.next())
+                {
+                    //System.out.println("User does not exist");
+                    return null;
+                }
+                User userToReturn = new User();                             // should always be ONE User!
+                userToReturn.setName(rs.getString("User_Name"));
+                userToReturn.setUserID(rs.getString("User_Pass"));
+                userToReturn.getPermit().setId(rs.getString("Permit_ID"));
+                userToReturn.setPermissions(UserPermissions.valueOf(rs.getString("Permissions")));
+                //System.out.println("\ncompleted query\n");
+                cache.putIfAbsent(userToReturn, stamp);
+                return userToReturn;
             }
-            //System.out.println("\ncompleted query\n");
         }
         catch (Exception e)
         {
             //System.out.println("User does not exist");
             return null;
         }
-        return userToReturn;
     }
 
     /**
-     * Method used to check if the user exists.
+     * Method used to log a user in.
+     * The user's credentials and profile come from a single
+     * lookup by username (or from the user cache). With hashing on, an
+     * unknown username takes as long as a wrong password.
      * @param uName username
      * @param uID user password
-     * @return whether or not the user can view the app.
+     * @return the user, or null if the username or password is wrong
      */
-    public boolean validateUserInfo (String uName, String uID)
+    public User authenticate (String uName, String uID)
     {
-        try
+        User u = getUser(uName);
+        if (u == null)
         {
-            String query1 = String.format("SELECT 1 FROM Users WHERE User_Name = '%s'", uName);
-            String query2 = String.format("SELECT 1 FROM Users WHERE User_Pass = '%s'", uID);
+            if (hashPasswords)
+                hasher.verifyUnknown(uID);                              // as slow as a wrong password
+            return null;
+        }
+        if (!hasher.verify(uID, u.getUserID()))
+            return null;
+        if (hashPasswords && hasher.needsRehash(u.getUserID()))           // plain text, or the cost has changed
+            updatePassword(uName, uID);
+        //System.out.println("Logged in!");
+        return u;
+    }
 
-            result = stat.executeQuery(query1);
-            if (!result.next())
-            {
-                //System.out.println("User does not exist");
-                return false;
-            }
-            result = stat.executeQuery(query2);
-            if (!result.next())
-            {
-                //System.out.println("Incorrect password");
-                return false;
-            }
-            else
-                conn.setAutoCommit(true);                                           // turn on automatic SQL statements
+    /**
+     * Method used to change a user's password.
+     * @param uName username
+     * @param uID new password
+     * @return if successful or not
+     */
+    public boolean updatePassword (String uName, String uID)
+    {
+        String password = storedPassword(uID);
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement update = conn.prepareStatement("UPDATE Users SET User_Pass = ? WHERE User_Name = ?"))
+        {
+            update.setString(1, password);
+            update.setString(2, uName);
+            return update.executeUpdate() == 1;
         }
         catch (SQLException s)
         {
-            //System.out.println("sql exception in validate user info");
+            System.out.println("sql exception in updatePassword");
             s.printStackTrace();
+            return false;
+        }
+        finally
+        {
+            cache.invalidate(uName);
         }
-        //System.out.println("Logged in!");
-        return true;
+    }
+
+    /**
+     * Returns a password the way it is stored: hashed if hashing is enabled.
+     * @param uID the password
+     * @return the value for the User_Pass column
+     */
+    private String storedPassword (String uID)
+    {
+        return hashPasswords ? hasher.hash(uID) : uID;
+    }
+
+    /**
+     * Returns passwords the way they are stored, hashed in parallel
+     * if hashing is enabled.
+     * @param uIDs the passwords
+     * @return the values for the User_Pass column, in the same order
+     */
+    List<String> storedPasswords (List<String> uIDs)
+    {
+        return hashPasswords ? hasher.hashAll(uIDs) : uIDs;
+    }
+
+    /**
+     * Method used to check if the user exists
+     * and the password is the user's.
+     * @param uName username
+     * @param uID user password
+     * @return whether or not the user can view the app.
+     */
+    public boolean validateUserInfo (String uName, String uID)
+    {
+        return authenticate(uName, uID) != null;
     }
 
     /**
@@ -290,27 +542,12 @@ public class UserDBManager
         String query = "UPDATE Users " +
                 "SET Permissions = ? " +
                 "WHERE User_Name = ?";
-        try
+        try (Connection conn = SimpleDataSource.getConnection();
+             PreparedStatement update = conn.prepareStatement(query))
         {
-            conn.setAutoCommit(false);                                      // disable automatic SQL statements for now
-
-            if (status == 1)
-            {
-                pStat = conn.prepareStatement(query);                                          // prepare the statement
-                pStat.setString(1, "ADMIN");
-                pStat.setString(2, uName);
-            }
-            else
-            {
-                pStat = conn.prepareStatement(query);                                          // prepare the statement
-                pStat.setString(1, "USER");
-                pStat.setString(2, uName);
-            }
-
-            pStat.executeUpdate();                                                      // update the statement
-            conn.commit();                                                              // and send it to the table
-
-            conn.setAutoCommit(true);                                               // turn on automatic SQL statements
+            update.setString(1, status == 1 ? "ADMIN" : "USER");
+            update.setString(2, uName);
+            update.executeUpdate();                                         // a single statement commits on its own
             //System.out.println("executed command");
         }
         catch (SQLException s)
@@ -318,21 +555,10 @@ public class UserDBManager
             //System.out.println("sql exception in updatePermissions");
             return false;
         }
-        return true;
-    }
-
-    /**
-     * Method used show to close the connection
-     */
-    public void closeConnection ()
-    {
-        try
+        finally
         {
-            conn.close();
-        }
-        catch (Exception e)
-        {
-            System.out.println ("no connection open");
+            cache.invalidate(uName);
         }
+        return true;
     }
-}
\ No newline at end of file
+}
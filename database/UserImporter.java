@@ -0,0 +1,326 @@
+package database;
+
+import objects.UserPermissions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+/**
+ * File Name: UserImporter.java
+ * UWF Parking App
+ *
+ * This class adds users in bulk from CSV text with one
+ * name,password,role line per user, like database/UserTable.txt.
+ * The text is read as a stream, chunkSize lines at a time: each chunk
+ * is checked, its passwords hashed in parallel (if hashing is enabled),
+ * and its users inserted with one batch and one commit.
+ * Lines with a missing field, a name longer than 20 characters, a role
+ * that is not a UserPermissions, or a name that is already taken are
+ * rejected and listed in the Result.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class UserImporter
+{
+    /** longest user name the Users table holds */
+    private static final int MAX_NAME = 20;
+
+    /** longest password the Users table holds, as it is stored in plain text when hashing is off */
+    private static final int MAX_PASSWORD = 128;
+
+    /** adds the users */
+    private final UserDBManager userDBManager;
+
+    /** number of lines inserted per batch and commit */
+    private final int chunkSize;
+
+    /**
+     * Creates an importer.
+     * @param userDBManager manager whose Users table is filled
+     * @param chunkSize number of lines inserted per batch and commit
+     */
+    public UserImporter (UserDBManager userDBManager, int chunkSize)
+    {
+        this.userDBManager = userDBManager;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Imports every line of the text.
+     * @param in the CSV text, closed by the caller
+     * @return what was imported and rejected
+     */
+    public Result importUsers (Reader in) throws IOException
+    {
+        Result result = new Result();
+        long start = System.nanoTime();
+        BufferedReader lines = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        Set<String> seen = new HashSet<String>();                   // names earlier in this file
+        List<Row> chunk = new ArrayList<Row>(chunkSize);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null)
+        {
+            lineNumber++;
+            if (line.trim().isEmpty())
+                continue;
+            result.read++;
+            Row row = parse(line, lineNumber, result);
+            if (row == null)
+                continue;
+            if (!seen.add(row.name))
+            {
+                result.reject(lineNumber, "name repeated in the file");
+                continue;
+            }
+            chunk.add(row);
+            if (chunk.size() == chunkSize)
+            {
+                insert(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            insert(chunk, result);
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Checks one line.
+     * @param line the line
+     * @param lineNumber its number, for the report
+     * @param result where a rejected line is reported
+     * @return the user on the line, or null if it is rejected
+     */
+    private Row parse (String line, int lineNumber, Result result)
+    {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 3)
+        {
+            result.reject(lineNumber, "expected name,password,role");
+            return null;
+        }
+        String name = fields[0].trim();
+        String password = fields[1].trim();
+        String role = fields[2].trim().toUpperCase();
+        if (name.isEmpty() || password.isEmpty())
+        {
+            result.reject(lineNumber, "missing name or password");
+            return null;
+        }
+        if (name.length() > MAX_NAME)
+        {
+            result.reject(lineNumber, "name longer than " + MAX_NAME + " characters");
+            return null;
+        }
+        if (password.length() > MAX_PASSWORD)
+        {
+            result.reject(lineNumber, "password longer than " + MAX_PASSWORD + " characters");
+            return null;
+        }
+        try
+        {
+            return new Row(lineNumber, name, password, UserPermissions.valueOf(role));
+        }
+        catch (IllegalArgumentException e)
+        {
+            result.reject(lineNumber, "unknown role " + fields[2].trim());
+            return null;
+        }
+    }
+
+    /**
+     * Inserts one chunk with one batch and one commit. Names already
+     * taken are rejected first, looking up only the names the Bloom
+     * filter may hold. If the batch still hits a taken name (someone
+     * signed up meanwhile) the chunk is inserted again line by line.
+     * @param chunk the users to insert
+     * @param result where the outcome is counted
+     */
+    private void insert (List<Row> chunk, Result result)
+    {
+        try (Connection conn = SimpleDataSource.getConnection())
+        {
+            List<Row> fresh = new ArrayList<Row>(chunk.size());
+            for (Row row : chunk)
+                if (userDBManager.mightExist(row.name) && userDBManager.nameTaken(conn, row.name))
+                    result.reject(row.lineNumber, "name already taken");
+                else
+                    fresh.add(row);
+            if (fresh.isEmpty())
+                return;
+
+            List<String> passwords = new ArrayList<String>(fresh.size());
+            for (Row row : fresh)
+                passwords.add(row.password);
+            passwords = userDBManager.storedPasswords(passwords);
+
+            conn.setAutoCommit(false);                                  // the whole chunk commits together
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO Users VALUES (?, ?, ?, ?)"))
+            {
+                for (int i = 0; i < fresh.size(); i++)
+                {
+                    bind(insert, fresh.get(i), passwords.get(i));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                conn.commit();
+                for (Row row : fresh)
+                    userDBManager.addName(row.name);
+                result.imported += fresh.size();
+            }
+            catch (BatchUpdateException b)
+            {
+                conn.rollback();
+                if (!UserDBManager.isDuplicate(b))
+                    throw b;
+                insertEach(conn, fresh, passwords, result);
+            }
+        }
+        catch (SQLException s)
+        {
+            System.out.println("sql exception in importUsers");
+            s.printStackTrace();
+            for (Row row : chunk)
+                result.reject(row.lineNumber, "database error: " + s.getMessage());
+        }
+    }
+
+    /**
+     * Inserts a chunk one line at a time, rejecting taken names.
+     * @param conn connection to use, not in auto-commit mode
+     * @param rows the users to insert
+     * @param passwords their passwords as stored
+     * @param result where the outcome is counted
+     */
+    private void insertEach (Connection conn, List<Row> rows, List<String> passwords, Result result)
+            throws SQLException
+    {
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO Users VALUES (?, ?, ?, ?)"))
+        {
+            for (int i = 0; i < rows.size(); i++)
+            {
+                Row row = rows.get(i);
+                try
+                {
+                    bind(insert, row, passwords.get(i));
+                    insert.executeUpdate();
+                    conn.commit();
+                    userDBManager.addName(row.name);
+                    result.imported++;
+                }
+                catch (SQLException s)
+                {
+                    conn.rollback();
+                    if (!UserDBManager.isDuplicate(s))
+                        throw s;
+                    userDBManager.addName(row.name);
+                    result.reject(row.lineNumber, "name already taken");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets one user on the insert statement.
+     * @param insert the statement
+     * @param row the user
+     * @param password the password as stored
+     */
+    private void bind (PreparedStatement insert, Row row, String password) throws SQLException
+    {
+        insert.setString(1, row.name);
+        insert.setString(2, password);
+        insert.setString(3, "00000");                                   // the default Permit's ID
+        insert.setString(4, row.role.toString());
+    }
+
+    /**
+     * One checked line of the file.
+     */
+    private static class Row
+    {
+        private final int lineNumber;
+        private final String name;
+        private final String password;
+        private final UserPermissions role;
+
+        private Row (int lineNumber, String name, String password, UserPermissions role)
+        {
+            this.lineNumber = lineNumber;
+            this.name = name;
+            this.password = password;
+            this.role = role;
+        }
+    }
+
+    /**
+     * What an import did.
+     */
+    public static class Result
+    {
+        /** most rejected lines listed one by one */
+        private static final int MAX_LISTED = 1000;
+
+        private long read;
+        private long imported;
+        private long rejected;
+        private long nanos;
+        private final List<String> rejectedLines = new ArrayList<String>();
+
+        /** Records a rejected line */
+        private void reject (int lineNumber, String reason)
+        {
+            rejected++;
+            if (rejectedLines.size() < MAX_LISTED)
+                rejectedLines.add("line " + lineNumber + ": " + reason);
+        }
+
+        /** Returns the number of non-empty lines read */
+        public long getRead() {
+            return read;
+        }
+
+        /** Returns the number of users added */
+        public long getImported() {
+            return imported;
+        }
+
+        /** Returns the number of lines rejected */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** Returns the first rejected lines with their reasons */
+        public List<String> getRejectedLines() {
+            return rejectedLines;
+        }
+
+        /** Returns how long the import took in milliseconds */
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        /** Returns the number of lines handled per second */
+        public long getRowsPerSecond() {
+            return nanos == 0 ? 0 : read * 1000000000L / nanos;
+        }
+
+        /** Returns the totals on one line */
+        public String toString()
+        {
+            return String.format("import[read=%d, imported=%d, rejected=%d, millis=%d, rowsPerSecond=%d]",
+                    read, imported, rejected, getMillis(), getRowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+/**
+ * File Name: ViolationHotspots.java
+ * UWF Parking App
+ *
+ * This class keeps the lots with the most violations over a sliding
+ * window (the last hour by default), in fixed memory, so the report
+ * pages never have to group the Violation table.
+ * The window is a ring of buckets, each covering an equal slice of
+ * time. Each bucket counts violations per lot in a count-min sketch
+ * (depth rows of width counters; a lot's count is the smallest of its
+ * counters, never too low and rarely much too high) and remembers the
+ * lots with the highest counts in that slice as candidates. The top
+ * lots of the window are the candidates with the highest counts summed
+ * over the live buckets, picked with a K-sized heap.
+ * LotDBManager records every violation it stores.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class ViolationHotspots
+{
+    /** the buckets, bucket i covers the slices whose number modulo the ring size is i */
+    private final Bucket[] buckets;
+
+    /** time covered by one bucket in milliseconds */
+    private final long bucketMillis;
+
+    /** counters per sketch row */
+    private final int width;
+
+    /** rows per sketch */
+    private final int depth;
+
+    /** lots remembered per bucket */
+    private final int candidates;
+
+    /**
+     * Creates an empty window.
+     * @param windowMillis time covered by the window
+     * @param numBuckets number of slices the window is cut in
+     * @param width counters per sketch row
+     * @param depth rows per sketch
+     * @param candidates lots remembered per slice, at least the K asked for
+     */
+    public ViolationHotspots (long windowMillis, int numBuckets, int width, int depth, int candidates)
+    {
+        int n = Math.max(1, numBuckets);
+        this.bucketMillis = Math.max(1, windowMillis / n);
+        this.width = Math.max(16, width);
+        this.depth = Math.max(1, depth);
+        this.candidates = Math.max(1, candidates);
+        this.buckets = new Bucket[n];
+        for (int i = 0; i < n; i++)
+            buckets[i] = new Bucket(this.depth, this.width);
+    }
+
+    /**
+     * Counts violations in a lot.
+     * Violations older than the window are ignored, and ones dated
+     * in the future are counted now.
+     * @param lotID name of the lot
+     * @param time when they were written, in epoch milliseconds
+     * @param count number of violations
+     */
+    public synchronized void record (String lotID, long time, int count)
+    {
+        if (count <= 0 || lotID == null)
+            return;
+        long now = System.currentTimeMillis();
+        long slice = Math.min(time, now) / bucketMillis;
+        if (slice <= now / bucketMillis - buckets.length)
+            return;                                                     // already out of the window
+        Bucket b = bucket(slice);
+        long h = BloomFilter.hash(lotID);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+        {
+            int[] counters = b.counts[row];
+            int i = index(h, row);
+            counters[i] += count;
+            estimate = Math.min(estimate, counters[i]);
+        }
+        b.total += count;
+        b.candidates.put(lotID, estimate);
+        if (b.candidates.size() > candidates)                           // forget the lowest candidate
+        {
+            String lowest = null;
+            for (Map.Entry<String, Integer> e : b.candidates.entrySet())
+                if (lowest == null || e.getValue() < b.candidates.get(lowest))
+                    lowest = e.getKey();
+            b.candidates.remove(lowest);
+        }
+    }
+
+    /**
+     * Returns the lots with the most violations in the window.
+     * @param k number of lots wanted
+     * @return up to k lots, most violations first
+     */
+    public synchronized List<Hotspot> top (int k)
+    {
+        long current = System.currentTimeMillis() / bucketMillis;
+        List<Bucket> live = new ArrayList<Bucket>(buckets.length);
+        Set<String> lots = new HashSet<String>();
+        for (Bucket b : buckets)
+            if (b.slice > current - buckets.length)
+            {
+                live.add(b);
+                lots.addAll(b.candidates.keySet());
+            }
+
+        PriorityQueue<Hotspot> heap = new PriorityQueue<Hotspot>();    // the k highest, lowest on top
+        for (String lotID : lots)
+        {
+            long h = BloomFilter.hash(lotID);
+            long count = 0;
+            for (Bucket b : live)
+                count += estimate(b, h);
+            heap.add(new Hotspot(lotID, count));
+            if (heap.size() > k)
+                heap.poll();
+        }
+        List<Hotspot> top = new ArrayList<Hotspot>(heap);
+        Collections.sort(top, Collections.reverseOrder());
+        return top;
+    }
+
+    /**
+     * Returns how many violations each slice of the window holds, to
+     * find the busiest times.
+     * @return the counts, oldest slice first
+     */
+    public synchronized long[] getSliceTotals ()
+    {
+        long current = System.currentTimeMillis() / bucketMillis;
+        long[] totals = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++)
+        {
+            long slice = current - buckets.length + 1 + i;
+            Bucket b = buckets[(int) Math.floorMod(slice, (long) buckets.length)];
+            totals[i] = b.slice == slice ? b.total : 0;
+        }
+        return totals;
+    }
+
+    /**
+     * Returns an estimate of a lot's violations in the window.
+     * @param lotID name of the lot
+     * @return at least the real count
+     */
+    public synchronized long estimate (String lotID)
+    {
+        long current = System.currentTimeMillis() / bucketMillis;
+        long h = BloomFilter.hash(lotID);
+        long count = 0;
+        for (Bucket b : buckets)
+            if (b.slice > current - buckets.length)
+                count += estimate(b, h);
+        return count;
+    }
+
+    /** Returns the bucket of a slice, emptied if it held an older slice */
+    private Bucket bucket (long slice)
+    {
+        Bucket b = buckets[(int) Math.floorMod(slice, (long) buckets.length)];
+        if (b.slice != slice)
+        {
+            for (int[] row : b.counts)
+                Arrays.fill(row, 0);
+            b.candidates.clear();
+            b.total = 0;
+            b.slice = slice;
+        }
+        return b;
+    }
+
+    /** Returns a lot's smallest counter in a bucket */
+    private int estimate (Bucket b, long h)
+    {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+            estimate = Math.min(estimate, b.counts[row][index(h, row)]);
+        return estimate;
+    }
+
+    /** Returns a lot's counter in a row, from the two halves of its hash */
+    private int index (long h, int row)
+    {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        return (int) (((h1 + (long) (row + 1) * h2) & Long.MAX_VALUE) % width);
+    }
+
+    /** Returns the time covered by the window in milliseconds */
+    public long getWindowMillis() {
+        return bucketMillis * buckets.length;
+    }
+
+    /** Returns the memory used by the sketches in bytes */
+    public long getSizeBytes() {
+        return 4L * buckets.length * depth * width;
+    }
+
+    /**
+     * One slice of the window.
+     */
+    private static class Bucket
+    {
+        private long slice = Long.MIN_VALUE;
+        private final int[][] counts;
+        private long total;
+        private final Map<String, Integer> candidates = new HashMap<String, Integer>();
+
+        private Bucket (int depth, int width)
+        {
+            counts = new int[depth][width];
+        }
+    }
+
+    /**
+     * A lot and its estimated number of violations in the window.
+     */
+    public static class Hotspot implements Comparable<Hotspot>
+    {
+        private final String lotID;
+        private final long violations;
+
+        private Hotspot (String lotID, long violations)
+        {
+            this.lotID = lotID;
+            this.violations = violations;
+        }
+
+        /** Returns the name of the lot */
+        public String getLotID() {
+            return lotID;
+        }
+
+        /** Returns the estimated number of violations */
+        public long getViolations() {
+            return violations;
+        }
+
+        /** Orders by violations, then by lot name */
+        public int compareTo (Hotspot other)
+        {
+            int c = Long.compare(violations, other.violations);
+            return c != 0 ? c : other.lotID.compareTo(lotID);
+        }
+
+        /** Returns the lot and its count, e.g. "E (12)" */
+        public String toString()
+        {
+            return lotID + " (" + violations + ")";
+        }
+    }
+}
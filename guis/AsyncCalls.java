@@ -0,0 +1,88 @@
+package guis;
+
+import java.awt.Cursor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+/**
+ * File Name: AsyncCalls.java
+ * UWF Parking App
+ *
+ * This class shows the result of a background Controller call on a panel.
+ * While a call runs the panel shows a wait cursor and the button that
+ * started it is disabled. The result is handed back on the Swing event
+ * dispatch thread. Calls still running when the panel is left are
+ * cancelled so their results are never shown.
+ * Only use it from the event dispatch thread.
+ *
+ * @author Nathan, Will
+ * @version 1.0
+ */
+public class AsyncCalls
+{
+    /** the panel showing the results */
+    private final JComponent panel;
+
+    /** calls whose results have not been shown yet */
+    private final List<CompletableFuture<?>> pending = new ArrayList<CompletableFuture<?>>();
+
+    /**
+     * Creates the helper for a panel.
+     * @param panel the panel showing the results
+     */
+    public AsyncCalls (JComponent panel)
+    {
+        this.panel = panel;
+    }
+
+    /**
+     * Shows the result of a background call once it is done.
+     * @param trigger the button that started the call, disabled until it is done
+     * @param call the running call
+     * @param onResult shows the result, runs on the event dispatch thread
+     * @param onError reports a failure, runs on the event dispatch thread
+     */
+    public <T> void submit (JComponent trigger, CompletableFuture<T> call, Consumer<? super T> onResult,
+                            Consumer<Throwable> onError)
+    {
+        trigger.setEnabled(false);
+        panel.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        CompletableFuture<?>[] shown = new CompletableFuture<?>[1];
+        shown[0] = call.handleAsync((result, error) -> {
+            pending.remove(shown[0]);
+            done(trigger);
+            if (error != null)
+                onError.accept(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            else
+                onResult.accept(result);
+            return null;
+        }, SwingUtilities::invokeLater);
+        pending.add(shown[0]);                          // the result is shown by a later EDT event, after this
+    }
+
+    /**
+     * Cancels every call whose result has not been shown yet.
+     * Called when the panel is removed from the window.
+     */
+    public void cancelAll ()
+    {
+        for (CompletableFuture<?> f : pending)
+            f.cancel(false);
+        pending.clear();
+        panel.setCursor(Cursor.getDefaultCursor());
+    }
+
+    /** Restores the panel once a call is done */
+    private void done (JComponent trigger)
+    {
+        trigger.setEnabled(true);
+        if (pending.isEmpty())
+            panel.setCursor(Cursor.getDefaultCursor());
+    }
+}
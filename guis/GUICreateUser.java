@@ -24,6 +24,9 @@ public class GUICreateUser extends JPanel
 	/** the controller that calls this class */
 	private Controller controller;
 
+	/** runs the sign up in the background */
+	private AsyncCalls calls = new AsyncCalls(this);
+
 	/**
      * Constructor that prepares the gui
      * @param controller the program controller
@@ -48,16 +51,16 @@ public class GUICreateUser extends JPanel
 		{
 			public void actionPerformed(ActionEvent e)
 			{
-
-				boolean verify = controller.verifyDuplicate(username.getText(), new String(password.getPassword()));
-				if (verify)
-				{
-					controller.displayGUIMainMenu();
-				}
-				else
-				{
-					controller.displayError("Username already exists.");
-				}
+				calls.submit(btnLogin, controller.verifyDuplicateAsync(username.getText(), new String(password.getPassword())), verify -> {
+					if (verify)
+					{
+						controller.displayGUIMainMenu();
+					}
+					else
+					{
+						controller.displayError("Username already exists.");
+					}
+				}, error -> controller.displayError("Username already exists."));
 			}
 		});
 		btnPanel.add(btnLogin);
@@ -75,6 +78,13 @@ public class GUICreateUser extends JPanel
 		this.add(btnPanel);  
 	}
 
+	/** Stops waiting for a sign up that is still running when the page is left */
+	public void removeNotify ()
+	{
+		calls.cancelAll();
+		super.removeNotify();
+	}
+
 	/** Adds the text fields */
 	public void addFields ()
 	{
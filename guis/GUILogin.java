@@ -23,6 +23,9 @@ public class GUILogin extends JPanel
     /** the controller that calls this class */
 	private Controller controller;
 
+	/** runs the login check in the background */
+	private AsyncCalls calls = new AsyncCalls(this);
+
     /**
      * Constructor that prepares the gui
      * @param controller the program controller
@@ -46,14 +49,16 @@ public class GUILogin extends JPanel
 		{
 			public void actionPerformed(ActionEvent e)
 			{
-				if (controller.verifyLogin(username.getText(), new String(password.getPassword())))
-				{
-					controller.displayGUIMainMenu();
-				}
-				else
-				{
-					controller.displayError("Incorrect Username/Password combination.");
-				}
+				calls.submit(btnLogin, controller.verifyLoginAsync(username.getText(), new String(password.getPassword())), valid -> {
+					if (valid)
+					{
+						controller.displayGUIMainMenu();
+					}
+					else
+					{
+						controller.displayError("Incorrect Username/Password combination.");
+					}
+				}, error -> controller.displayError("Incorrect Username/Password combination."));
 			}
 		});
 		btnPanel.add(btnLogin);
@@ -70,6 +75,13 @@ public class GUILogin extends JPanel
 		this.add(btnPanel);
 	}
 
+	/** Stops waiting for a login check that is still running when the page is left */
+	public void removeNotify ()
+	{
+		calls.cancelAll();
+		super.removeNotify();
+	}
+
 	/** add the text-fields */
 	public void addFields ()
 	{
@@ -2,6 +2,7 @@ package guis;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
 import application.*;
 import objects.User;
 /**
@@ -33,6 +34,9 @@ public class GUIManage extends JPanel
    /** contains the button to toggle */
    private JPanel changeBtnPanel;
 
+   /** runs the user lookups and permission changes in the background */
+   private AsyncCalls calls = new AsyncCalls(this);
+
    /**
     * Constructor that prepares the gui
     * @param controller the program controller
@@ -62,21 +66,10 @@ public class GUIManage extends JPanel
          {
             public void actionPerformed(ActionEvent e)
             {
-               user = controller.getUser(username.getText());
-            
-               if (user == null)
-               {
-                  controller.displayError("User Does Not Exist.");
-               }
-               else
-               {
-                  userDisplayPanel.removeAll();
-                  changeBtnPanel.removeAll();
-                  frame.revalidate();
-                  displayUser();
-                  displayModBtn();
-                  System.out.println("Display User");
-               }
+               calls.submit(btnLogin, controller.getUserAsync(username.getText()), found -> {
+                  user = found;
+                  showUser();
+               }, error -> controller.displayError("User Does Not Exist."));
             }
          });
       btnPanel.add(btnLogin);
@@ -108,6 +101,31 @@ public class GUIManage extends JPanel
       this.add(userPanel);
    }
 
+   /** Redisplays the user found, or reports that there is none */
+   private void showUser ()
+   {
+      if (user == null)
+      {
+         controller.displayError("User Does Not Exist.");
+      }
+      else
+      {
+         userDisplayPanel.removeAll();
+         changeBtnPanel.removeAll();
+         frame.revalidate();
+         displayUser();
+         displayModBtn();
+         System.out.println("Display User");
+      }
+   }
+
+   /** Stops showing lookups and changes that are still running when the page is left */
+   public void removeNotify ()
+   {
+      calls.cancelAll();
+      super.removeNotify();
+   }
+
    /** Displays the user's permissions */
    public void displayUser ()
    {
@@ -129,32 +147,24 @@ public class GUIManage extends JPanel
          {
             public void actionPerformed(ActionEvent e)
             {
+               CompletableFuture<Void> change = CompletableFuture.completedFuture(null);
                if (user.getPermissions().getpString() == "USER")
                {
-                  controller.updatePermissions (user.getName(), 1);
+                  change = controller.updatePermissionsAsync (user.getName(), 1);
                }
                else if (user.getPermissions().getpString() == "ADMIN")
                {
-                  controller.updatePermissions (user.getName(), 0);
+                  change = controller.updatePermissionsAsync (user.getName(), 0);
                }
                else if (user.getPermissions().getpString() == "SUPERVISOR")
                {
                   controller.displayError("You Cannot Change The Supervisor's Permissions!!!");
                }
-               user = controller.getUser(username.getText());
-               if (user == null)
-               {
-                  controller.displayError("User Does Not Exist.");
-               }
-               else
-               {
-                  userDisplayPanel.removeAll();
-                  changeBtnPanel.removeAll();
-                  frame.revalidate();
-                  displayUser();
-                  displayModBtn();
-                  System.out.println("Display User");
-               }
+               String name = username.getText();
+               calls.submit(changePermission, change.thenCompose(v -> controller.getUserAsync(name)), found -> {
+                  user = found;
+                  showUser();
+               }, error -> controller.displayError("User Does Not Exist."));
             }
          });
       changeBtnPanel.setBackground(Color.ORANGE);
@@ -18,6 +18,9 @@ import application.Controller;
  */
 public class GUIMaps extends JPanel
 {
+    /** the campus parking map */
+    private static final String MAP = "resources/parking_map.png";
+
     /** the controller to call this class */
     private Controller controller;
 
@@ -29,6 +32,7 @@ public class GUIMaps extends JPanel
     {
         this.controller = controller;
         this.addButtons();
+        ImageCache.preload(MAP);
     }
 
     /** Adds the buttons */
@@ -45,23 +49,12 @@ public class GUIMaps extends JPanel
         this.add(btnGoBack);
     }
 
-    /** Displays the map */
+    /** Displays the map, scaled to the panel by the image cache */
     public void paintComponent (Graphics g)
     {
-        BufferedImage bi = null;
-        try
-        {
-            ImageIcon imageicon = new ImageIcon("resources/parking_map.png");
-            bi = new BufferedImage(imageicon.getIconWidth(), imageicon.getIconHeight(), BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2d = (Graphics2D) bi.createGraphics();
-            g2d.addRenderingHints(new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY));
-            g2d.drawImage(imageicon.getImage(), 0, 0, this.getWidth(), this.getHeight(), this);
-        }
-        catch(Exception e)
-        {
-            e.printStackTrace();
-        }
-
-        g.drawImage(bi, 0, 0, this);
+        super.paintComponent(g);
+        BufferedImage bi = ImageCache.getScaled(MAP, this.getWidth(), this.getHeight(), this::repaint);
+        if (bi != null)
+            g.drawImage(bi, 0, 0, this.getWidth(), this.getHeight(), this);     // a stand-in may be another size
     }
 }
\ No newline at end of file
@@ -4,12 +4,12 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.File;
 //import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.util.List;
 import javax.swing.*;
 
 import application.Controller;
+import database.ViolationHotspots;
 import objects.ParkingLot;
 /**
  * File Name: GUIReport.java
@@ -40,9 +40,15 @@ public class GUIReport extends JPanel
     /** the number of violations to input */
     private JLabel violations;
 
+    /** the lots with the most violations in the last hour */
+    private JLabel hotspots;
+
     /** map of the lot specified */
     private JLabel lotImage;
 
+    /** runs the lot lookups and reports in the background */
+    private AsyncCalls calls = new AsyncCalls(this);
+
     /**
      * Constructor that prepares the gui
      * @param controller the program controller
@@ -66,9 +72,12 @@ public class GUIReport extends JPanel
         spaceAvail = new JLabel("Spaces Available: --");
         numCars = new JLabel("Number of Cars: --");
         violations = new JLabel("Violations: --");
+        hotspots = new JLabel();
         stats.add(spaceAvail);
         stats.add(numCars);
         stats.add(violations);
+        stats.add(hotspots);
+        showHotspots();
         stats.setBorder(BorderFactory.createLineBorder(Color.black));
         this.add(stats);
     }
@@ -79,10 +88,19 @@ public class GUIReport extends JPanel
         spaceAvail.setText("Spaces Available: " + lot.getAvailable());
         numCars.setText("Number of Cars: " + lot.getOccupied());
         violations.setText("Violations: " + lot.getViolations());
+        showHotspots();
         this.revalidate();
         this.repaint();
     }
 
+    /** show the lots with the most violations in the last hour, kept in memory by the controller */
+    private void showHotspots ()
+    {
+        List<ViolationHotspots.Hotspot> top = controller.getHotspots(3);
+        hotspots.setText("Hottest lots in the last hour: " + (top.isEmpty() ? "none" : top.toString()
+                .replace("[", "").replace("]", "")));
+    }
+
     /** update the statistics of a valid lot */
     private void updateStats ()
     {
@@ -104,16 +122,18 @@ public class GUIReport extends JPanel
                     int space = Integer.parseInt(carField.getText());
                     int violations = Integer.parseInt(violationField.getText());
 
-                    lot = controller.updateLot(lot.getLotID(), space, violations);
-                    if (lot != null)
-                    {
-                        controller.displayError("Report was successfully submitted");
-                        viewStats();
-                    }
-                    if (lot == null)
-                    {
-                        controller.displayError("An error occurred while updating the lot's information");
-                    }
+                    calls.submit(btnUpdate, controller.updateLotAsync(lot.getLotID(), space, violations), updated -> {
+                        if (updated != null)
+                        {
+                            lot = updated;
+                            controller.displayError("Report was successfully submitted");
+                            viewStats();
+                        }
+                        else
+                        {
+                            controller.displayError("An error occurred while updating the lot's information");
+                        }
+                    }, error -> controller.displayError("An error occurred while updating the lot's information"));
                 }
                 catch (Exception e1)
                 {
@@ -181,17 +201,22 @@ public class GUIReport extends JPanel
         {
             public void actionPerformed(ActionEvent e)
             {
-                lot = controller.getLot(lotField.getText());
-                if (lot == null)
-                    controller.displayError("There is no lot with that ID");
-                else if (lotField.getText().equals(""))
-                    controller.displayError("There is not a lot specified");
-                else
+                if (lotField.getText().equals(""))
                 {
-                    drawParkingLot(lot.getLotID().toLowerCase());
-                    viewStats();
+                    controller.displayError("There is not a lot specified");
+                    return;
                 }
-                repaint();
+                calls.submit(btnViewLot, controller.getLotAsync(lotField.getText()), found -> {
+                    lot = found;
+                    if (lot == null)
+                        controller.displayError("There is no lot with that ID");
+                    else
+                    {
+                        drawParkingLot(lot.getLotID().toLowerCase());
+                        viewStats();
+                    }
+                    repaint();
+                }, error -> controller.displayError("There is no lot with that ID"));
             }
         });
 
@@ -213,25 +238,32 @@ public class GUIReport extends JPanel
         this.add(btnGoBack);
     }
 
+    /** Stops showing lookups and reports that are still running when the page is left */
+    public void removeNotify ()
+    {
+        calls.cancelAll();
+        super.removeNotify();
+    }
+
     /**
-     * Pull up a map of the lot specified
+     * Pull up a map of the lot specified, from the image cache
      * @param lotID name of the lot
      */
     private void drawParkingLot (String lotID)
     {
-        BufferedImage bi = null;
-        try
-        {
-            bi = ImageIO.read(new File(String.format("resources/%s_lot.png", lotID.toLowerCase())));
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
-
-        Image img = bi.getScaledInstance(this.getWidth()/2, this.getHeight()/2, Image.SCALE_FAST);
-        ImageIcon icon = new ImageIcon(img);
-        lotImage.setIcon(icon);
+        int width = this.getWidth()/2;
+        int height = this.getHeight()/2;
+        BufferedImage bi = ImageCache.getScaled(String.format("resources/%s_lot.png", lotID.toLowerCase()),
+                width, height, () -> {
+                    if (lot != null && lot.getLotID().equalsIgnoreCase(lotID))  // still showing this lot
+                        drawParkingLot(lotID);
+                });
+        if (bi == null)
+            lotImage.setIcon(null);
+        else if (bi.getWidth() == width && bi.getHeight() == height)
+            lotImage.setIcon(new ImageIcon(bi));
+        else                                                    // a stand-in until the exact size is made
+            lotImage.setIcon(new ImageIcon(bi.getScaledInstance(width, height, Image.SCALE_FAST)));
         lotImage.setAlignmentX(this.CENTER_ALIGNMENT);
         this.revalidate();
     }
@@ -2,7 +2,9 @@ package guis;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import java.util.List;
 import application.*;
+import database.ViolationHotspots;
 import objects.ParkingLot;
 /**
  * File Name: GUIRestric.java
@@ -33,6 +35,9 @@ public class GUIRestric extends JPanel
     /** contains the button to toggle */
     private JPanel changeBtnPanel;
 
+    /** runs the lot lookups and status changes in the background */
+    private AsyncCalls calls = new AsyncCalls(this);
+
     /**
      * Constructor that prepares the gui
      * @param controller the program controller
@@ -44,6 +49,7 @@ public class GUIRestric extends JPanel
         this.controller = controller;
         this.setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
         this.addFields();                                                 //add search field
+        this.addHotspots();                                               //show where violations are happening
         this.addButtons();                                                //add search and go-back buttons
         this.lotDisplayPanel = new JPanel();                              //create global var for panel to display lot info
         this.changeBtnPanel = new JPanel();                               //create global var for panel for toggle button
@@ -63,20 +69,22 @@ public class GUIRestric extends JPanel
                 {
                     public void actionPerformed(ActionEvent e)
                     {
-                        lot = controller.getLot(lotName.getText());        //Look up Lot by LotID and assign ParkingLot object to var lot
-                        if (lot == null)
-                        {
-                            controller.displayError("Parking Lot Does Not Exist.");
-                        }
-                        else
-                        {
-                            lotDisplayPanel.removeAll();           //Remove all previous lot info
-                            changeBtnPanel.removeAll();            //Remove all toggle buttons
-                            frame.revalidate();                    //revalidate to ensure everything cleared
-                            displayLot();                          //redisplay lot info after change has been made
-                            displayModBtn();                       //reload toggle buttons
-                            System.out.println("Display Parking Lot");
-                        }
+                        calls.submit(btnLookUp, controller.getLotAsync(lotName.getText()), found -> {
+                            lot = found;                               //Look up Lot by LotID and assign ParkingLot object to var lot
+                            if (lot == null)
+                            {
+                                controller.displayError("Parking Lot Does Not Exist.");
+                            }
+                            else
+                            {
+                                lotDisplayPanel.removeAll();           //Remove all previous lot info
+                                changeBtnPanel.removeAll();            //Remove all toggle buttons
+                                frame.revalidate();                    //revalidate to ensure everything cleared
+                                displayLot();                          //redisplay lot info after change has been made
+                                displayModBtn();                       //reload toggle buttons
+                                System.out.println("Display Parking Lot");
+                            }
+                        }, error -> controller.displayError("Parking Lot Does Not Exist."));
                     }
                 });
         btnPanel.add(btnLookUp);                        //Add search buttons
@@ -93,6 +101,13 @@ public class GUIRestric extends JPanel
         this.add(btnPanel);
     }
 
+    /** Stops showing lookups and changes that are still running when the page is left */
+    public void removeNotify ()
+    {
+        calls.cancelAll();
+        super.removeNotify();
+    }
+
     /** Adds the text fields */
     public void addFields ()
     {
@@ -108,6 +123,21 @@ public class GUIRestric extends JPanel
         this.add(fieldPanel);
     }
 
+    /** Shows the lots with the most violations in the last hour, to decide which lots to close */
+    public void addHotspots ()
+    {
+        JPanel hotspotPanel = new JPanel();
+        hotspotPanel.setLayout(new BoxLayout(hotspotPanel, BoxLayout.PAGE_AXIS));
+        hotspotPanel.setBorder(BorderFactory.createLineBorder(Color.black));
+        hotspotPanel.add(new JLabel("Hottest lots in the last hour:"));
+        List<ViolationHotspots.Hotspot> top = controller.getHotspots(5);   //kept in memory, no database call
+        if (top.isEmpty())
+            hotspotPanel.add(new JLabel("No violations"));
+        for (ViolationHotspots.Hotspot h : top)
+            hotspotPanel.add(new JLabel(h.getLotID() + ": " + h.getViolations() + " violations"));
+        this.add(hotspotPanel);
+    }
+
     /** Displays the lot retrieved */
     public void displayLot ()
     {
@@ -140,31 +170,23 @@ public class GUIRestric extends JPanel
          {
             public void actionPerformed(ActionEvent e)
             {
-               if (lot.isOpen() == true)
-               {
-                  controller.setOpen(false);
-                  controller.updateLotStatus(lot.getLotID(),false);
-               }
-               else if (lot.isOpen() == false)
-               {
-                  controller.setOpen(true);
-                  controller.updateLotStatus(lot.getLotID(),true);
-               }
-               String lotNm = lot.getLotID();
-               if (lot == null)
-               {
-                  controller.displayError("Lot Does Not Exist.");
-               }
-               else
-               {
-                  lotDisplayPanel.removeAll();
-                  changeBtnPanel.removeAll();
-                  frame.revalidate();
-                  lot = controller.getLot(lotName.getText());
-                  displayLot();
-                  displayModBtn();
-                  System.out.println("Display Lot");
-               }
+               // the status change returns the lot as updated, so no second lookup is needed
+               calls.submit(changeRestriction, controller.updateLotStatusAsync(lot.getLotID(), !lot.isOpen()), updated -> {
+                  lot = updated;
+                  if (lot == null)
+                  {
+                     controller.displayError("Lot Does Not Exist.");
+                  }
+                  else
+                  {
+                     lotDisplayPanel.removeAll();
+                     changeBtnPanel.removeAll();
+                     frame.revalidate();
+                     displayLot();
+                     displayModBtn();
+                     System.out.println("Display Lot");
+                  }
+               }, error -> controller.displayError("Lot Does Not Exist."));
             }
          });
         changeBtnPanel.setBackground(Color.ORANGE);
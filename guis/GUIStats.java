@@ -3,8 +3,6 @@ package guis;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import application.*;
 import objects.ParkingLot;
@@ -40,6 +38,9 @@ public class GUIStats extends JPanel
     /** contains map */
     private JLabel lotImage;
 
+    /** runs the lot lookups in the background */
+    private AsyncCalls calls = new AsyncCalls(this);
+
     /**
      * Constructor that prepares the gui
      * @param controller the program controller
@@ -74,19 +75,21 @@ public class GUIStats extends JPanel
         {
             public void actionPerformed(ActionEvent e)
             {
-                lot = controller.getLot(lotName.getText());        //Look up Lot by LotID and assign ParkingLot object to var lot
-                if (lot == null)
-                {
-                    controller.displayError("Parking Lot Does Not Exist.");
-                } else
-                {
-                    lotDisplayPanel.removeAll();           //Remove all previous lot info
-                    changeBtnPanel.removeAll();            //Remove all toggle buttons
-                    frame.revalidate();                    //revalidate to ensure everything cleared
-                    displayLot();                          //redisplay lot info after change has been made
-                    drawParkingLot(lot.getLotID().toLowerCase());
-                    System.out.println("Display Parking Lot");
-                }
+                calls.submit(btnLookUp, controller.getLotAsync(lotName.getText()), found -> {
+                    lot = found;                               //Look up Lot by LotID and assign ParkingLot object to var lot
+                    if (lot == null)
+                    {
+                        controller.displayError("Parking Lot Does Not Exist.");
+                    } else
+                    {
+                        lotDisplayPanel.removeAll();           //Remove all previous lot info
+                        changeBtnPanel.removeAll();            //Remove all toggle buttons
+                        frame.revalidate();                    //revalidate to ensure everything cleared
+                        displayLot();                          //redisplay lot info after change has been made
+                        drawParkingLot(lot.getLotID().toLowerCase());
+                        System.out.println("Display Parking Lot");
+                    }
+                }, error -> controller.displayError("Parking Lot Does Not Exist."));
             }
         });
         btnPanel.add(btnLookUp);                        //Add search buttons
@@ -102,6 +105,13 @@ public class GUIStats extends JPanel
         this.add(btnPanel);
     }
 
+    /** Stops showing lookups that are still running when the page is left */
+    public void removeNotify ()
+    {
+        calls.cancelAll();
+        super.removeNotify();
+    }
+
     /** Adds the text fields */
     public void addFields()
     {
@@ -142,22 +152,22 @@ public class GUIStats extends JPanel
         frame.revalidate();
     }
 
-    /** Displays the lot's map */
+    /** Displays the lot's map, from the image cache */
     private void drawParkingLot (String lotID)
     {
-        BufferedImage bi = null;
-        try
-        {
-            bi = ImageIO.read(new File(String.format("resources/%s_lot.png", lotID.toLowerCase())));
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
-
-        Image img = bi.getScaledInstance(this.getWidth()/2, this.getHeight()/2, Image.SCALE_FAST);
-        ImageIcon icon = new ImageIcon(img);
-        lotImage.setIcon(icon);
+        int width = this.getWidth()/2;
+        int height = this.getHeight()/2;
+        BufferedImage bi = ImageCache.getScaled(String.format("resources/%s_lot.png", lotID.toLowerCase()),
+                width, height, () -> {
+                    if (lot != null && lot.getLotID().equalsIgnoreCase(lotID))  // still showing this lot
+                        drawParkingLot(lotID);
+                });
+        if (bi == null)
+            lotImage.setIcon(null);
+        else if (bi.getWidth() == width && bi.getHeight() == height)
+            lotImage.setIcon(new ImageIcon(bi));
+        else                                                    // a stand-in until the exact size is made
+            lotImage.setIcon(new ImageIcon(bi.getScaledInstance(width, height, Image.SCALE_FAST)));
         lotImage.setAlignmentX(this.CENTER_ALIGNMENT);
         this.revalidate();
     }
@@ -1,13 +1,10 @@
 package guis;
 
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JPanel;
 
@@ -23,6 +20,9 @@ import application.Controller;
  */
 public class GUIWalk extends JPanel
 {
+    /** the walking times chart */
+    private static final String CHART = "resources/walking_times.png";
+
     /** the controller to call this class */
     private Controller controller;
 
@@ -34,6 +34,7 @@ public class GUIWalk extends JPanel
     {
         this.controller = controller;
         this.addButtons();
+        ImageCache.preload(CHART);
     }
 
     /** Adds the buttons */
@@ -50,25 +51,12 @@ public class GUIWalk extends JPanel
         this.add(btnGoBack);
     }
 
-    /** Displays the walking times chart */
+    /** Displays the walking times chart, scaled to the panel by the image cache */
     public void paintComponent (Graphics g)
     {
-        BufferedImage bi = null;
-        try
-        {
-
-            ImageIcon imageicon = new ImageIcon("resources/walking_times.png");
-            bi = new BufferedImage(imageicon.getIconWidth(), imageicon.getIconHeight(), BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2d = (Graphics2D) bi.createGraphics();
-            g2d.addRenderingHints(new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY));
-            g2d.drawImage(imageicon.getImage(), 0, 0, this.getWidth(), this.getHeight(), this);
-
-        }
-        catch(Exception e)
-        {
-            e.printStackTrace();
-        }
-
-        g.drawImage(bi, 0, 0, this);
+        super.paintComponent(g);
+        BufferedImage bi = ImageCache.getScaled(CHART, this.getWidth(), this.getHeight(), this::repaint);
+        if (bi != null)
+            g.drawImage(bi, 0, 0, this.getWidth(), this.getHeight(), this);     // a stand-in may be another size
     }
 }
\ No newline at end of file
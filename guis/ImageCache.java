@@ -0,0 +1,187 @@
+package guis;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import application.TaskExecutors;
+/**
+ * File Name: ImageCache.java
+ * UWF Parking App
+ *
+ * This class keeps the maps and charts the panels show, so they are
+ * not read and scaled again on every search or repaint.
+ * Each image file is decoded once, in the background, and the
+ * scaled copies made for the panels are kept in a small LRU keyed
+ * by file and size. A panel asking for an image that is still
+ * loading gets null and is called back on the event dispatch
+ * thread once it is ready. Scaling also runs in the background,
+ * one size per file at a time: until a size is ready the panel gets
+ * the closest copy made so far, or the original, to draw stretched,
+ * so resizing a window does not scale an image on every frame.
+ *
+ * @author Nathan, Will
+ * @version 1.0
+ */
+public class ImageCache
+{
+    /** largest number of scaled copies kept */
+    private static final int MAX_SCALED = 32;
+
+    /** decodes the image files */
+    private static final ExecutorService loader =
+            Executors.newFixedThreadPool(2, TaskExecutors.daemonThreads("image-loader"));
+
+    /** decoded images by file name, null once loaded if the file could not be read */
+    private static final Map<String, CompletableFuture<BufferedImage>> originals =
+            new ConcurrentHashMap<String, CompletableFuture<BufferedImage>>();
+
+    /** files with a scaled copy being made; lock on scaled to use it */
+    private static final Set<String> scaling = new HashSet<String>();
+
+    /** scaled copies by "file@widthxheight", least recently used first */
+    private static final Map<String, BufferedImage> scaled =
+            new LinkedHashMap<String, BufferedImage>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry (Map.Entry<String, BufferedImage> eldest)
+                {
+                    return size() > MAX_SCALED;
+                }
+            };
+
+    /**
+     * Starts decoding images in the background before they are needed.
+     * @param fileNames the image files
+     */
+    public static void preload (String... fileNames)
+    {
+        for (String fileName : fileNames)
+            load(fileName);
+    }
+
+    /**
+     * Returns the decoding of an image file, starting it the first time.
+     * @param fileName the image file
+     * @return the decoded image, once read
+     */
+    private static CompletableFuture<BufferedImage> load (String fileName)
+    {
+        return originals.computeIfAbsent(fileName, f -> CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return ImageIO.read(new File(f));
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+                return null;
+            }
+        }, loader));
+    }
+
+    /**
+     * Returns an image scaled to the given size.
+     * If the file is still being decoded null is returned, and
+     * onLoaded is run on the event dispatch thread once it is done.
+     * If that size is still being made, the closest copy there is
+     * is returned, which may be another size and should be drawn
+     * stretched, and onLoaded is run once the size is ready.
+     * Null is also returned if the file could not be read.
+     * @param fileName the image file
+     * @param width width to scale to
+     * @param height height to scale to
+     * @param onLoaded run when the image is ready, e.g. a repaint
+     * @return the scaled image, a stand-in of another size, or null
+     */
+    public static BufferedImage getScaled (String fileName, int width, int height, Runnable onLoaded)
+    {
+        CompletableFuture<BufferedImage> original = load(fileName);
+        if (!original.isDone())
+        {
+            original.thenRun(() -> SwingUtilities.invokeLater(onLoaded));
+            return null;
+        }
+        BufferedImage image = original.join();
+        if (image == null || width <= 0 || height <= 0)
+            return null;
+
+        String key = fileName + "@" + width + "x" + height;
+        synchronized (scaled)
+        {
+            BufferedImage copy = scaled.get(key);
+            if (copy != null)
+                return copy;
+            if (scaling.add(fileName))                                  // else the next repaint asks again
+                CompletableFuture.runAsync(() -> {
+                    try
+                    {
+                        BufferedImage made = scale(image, width, height);
+                        synchronized (scaled)
+                        {
+                            scaled.put(key, made);
+                        }
+                    }
+                    finally
+                    {
+                        synchronized (scaled)
+                        {
+                            scaling.remove(fileName);
+                        }
+                    }
+                    SwingUtilities.invokeLater(onLoaded);
+                }, loader);
+            return closest(fileName, width, height, image);
+        }
+    }
+
+    /**
+     * Returns the scaled copy of a file closest to a size, or the
+     * original if there is none. Called while holding the lock on scaled.
+     */
+    private static BufferedImage closest (String fileName, int width, int height, BufferedImage original)
+    {
+        BufferedImage best = original;
+        int bestDistance = Integer.MAX_VALUE;
+        String prefix = fileName + "@";
+        for (Map.Entry<String, BufferedImage> e : scaled.entrySet())   // does not change the LRU order
+        {
+            BufferedImage copy = e.getValue();
+            int distance = Math.abs(copy.getWidth() - width) + Math.abs(copy.getHeight() - height);
+            if (e.getKey().startsWith(prefix) && distance < bestDistance)
+            {
+                best = copy;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Draws an image into a new image of the given size.
+     * @param image the image to scale
+     * @param width new width
+     * @param height new height
+     * @return the scaled copy
+     */
+    private static BufferedImage scale (BufferedImage image, int width, int height)
+    {
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = copy.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.dispose();
+        return copy;
+    }
+}
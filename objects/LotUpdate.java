@@ -0,0 +1,114 @@
+package objects;
+/**
+ * File Name: LotUpdate.java
+ * UWF Parking App
+ *
+ * This class represents one report for a lot: the number of
+ * cars counted and the violations found, or a status change.
+ * Reports are applied in bulk by LotDBManager.updateLots.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class LotUpdate
+{
+    /** numCars of a report that leaves the number of cars as it is */
+    public static final int UNCHANGED = -1;
+
+    /** the lot's name */
+    private final String lotID;
+
+    /** the number of cars in the lot */
+    private final int numCars;
+
+    /** the number of new violations */
+    private final int violations;
+
+    /** whether the lot is open or closed, null to leave it as it is */
+    private final Boolean open;
+
+    /**
+     * Creates an occupancy report.
+     * @param lotID name of the lot
+     * @param numCars number of cars in the lot
+     * @param violations number of new violations
+     */
+    public LotUpdate (String lotID, int numCars, int violations)
+    {
+        this(lotID, numCars, violations, null);
+    }
+
+    /**
+     * Creates a status change.
+     * @param lotID name of the lot
+     * @param isOpen a lot's status (open/true or close/false)
+     */
+    public LotUpdate (String lotID, boolean isOpen)
+    {
+        this(lotID, UNCHANGED, 0, isOpen);
+    }
+
+    private LotUpdate (String lotID, int numCars, int violations, Boolean open)
+    {
+        this.lotID = lotID;
+        this.numCars = numCars;
+        this.violations = violations;
+        this.open = open;
+    }
+
+    /**
+     * Combines this report with a later report for the same lot.
+     * The later number of cars and status win, violations add up.
+     * @param later report made after this one
+     * @return a report with the effect of both
+     */
+    public LotUpdate merge (LotUpdate later)
+    {
+        return new LotUpdate(lotID,
+                later.numCars != UNCHANGED ? later.numCars : numCars,
+                violations + later.violations,
+                later.open != null ? later.open : open);
+    }
+
+    /**
+     * Applies the report to a lot the same way LotDBManager.updateLot does:
+     * sets the occupied and available spaces (raising the total if
+     * there are more cars than spaces), adds the violations,
+     * sets the status and updates the Timestamp.
+     * @param lot lot to change
+     */
+    public void applyTo (ParkingLot lot)
+    {
+        if (numCars != UNCHANGED)
+        {
+            if (lot.getTotal() < numCars)
+                lot.setTotal(numCars);
+            lot.setOccupied(numCars);
+            lot.setAvailable(lot.getTotal() - numCars);
+        }
+        lot.setViolations(lot.getViolations() + violations);
+        if (open != null)
+            lot.setOpen(open);
+        lot.setRecordTime(System.currentTimeMillis());
+    }
+
+    /** Returns the lot's name */
+    public String getLotID() {
+        return lotID;
+    }
+
+    /** Returns the number of cars in the lot */
+    public int getNumCars() {
+        return numCars;
+    }
+
+    /** Returns the number of new violations */
+    public int getViolations() {
+        return violations;
+    }
+
+    /** Returns the new status, or null if the status is left as it is */
+    public Boolean getOpen() {
+        return open;
+    }
+}
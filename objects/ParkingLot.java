@@ -51,8 +51,11 @@ public class ParkingLot
     /** the number of motorcycle spaces */
 	private int motorcycle = 0;
 
-    /** the time and date at which the lot is recorded */
-	private Date recordDate;
+    /** the time at which the lot is recorded, in epoch milliseconds */
+	private long recordTime;
+
+    /** version of the stored state this lot was read from, -1 if unknown */
+	private long version = -1;
 
     /**
      * Constructor used to create blank lot.
@@ -60,7 +63,7 @@ public class ParkingLot
 	public ParkingLot()
     {
 		this.lotID = "";
-		recordDate = new Date();
+		recordTime = System.currentTimeMillis();
 	}
 
     /** Admin/Super - update Lot constructor */
@@ -71,9 +74,29 @@ public class ParkingLot
         this.total = numCars;
         this.occupied = numCars;
         this.violations = vio;
-        recordDate = new Date();
+        recordTime = System.currentTimeMillis();
     }
 
+	/** Copy constructor, used to hand out lots without sharing them */
+	public ParkingLot (ParkingLot other)
+	{
+		this.lotID = other.lotID;
+		this.total = other.total;
+		this.occupied = other.occupied;
+		this.available = other.available;
+		this.isOpen = other.isOpen;
+		this.violations = other.violations;
+		this.reserved = other.reserved;
+		this.handicapped = other.handicapped;
+		this.commuter = other.commuter;
+		this.resident = other.resident;
+		this.staff = other.staff;
+		this.visitor = other.visitor;
+		this.motorcycle = other.motorcycle;
+		this.recordTime = other.recordTime;
+		this.version = other.version;
+	}
+
 	/** Supervisor - add Lot constructor */
 	public ParkingLot (String ID, int total, int reserved, int handicapped, int commuter,
 			int resident, int staff, int visitor, int motorcycle, boolean isOpen)
@@ -90,7 +113,7 @@ public class ParkingLot
 		this.visitor = visitor;
 		this.motorcycle = motorcycle;
 		this.violations = 0;
-		recordDate = new Date();
+		recordTime = System.currentTimeMillis();
 	}
 
     /** Returns the lot's name */
@@ -225,13 +248,64 @@ public class ParkingLot
         this.violations = violations;
     }
 
-    /** Returns the date of the report */
+    /** Returns the date of the report as a new Date */
     public Date getRecordDate() {
-		return recordDate;
+		return new Date(recordTime);
 	}
 
     /** Sets the date of the report */
 	public void setRecordDate(Date recordDate) {
-		this.recordDate = recordDate;
+		this.recordTime = recordDate.getTime();
+	}
+
+    /** Returns the time of the report in epoch milliseconds */
+	public long getRecordTime() {
+		return recordTime;
+	}
+
+    /** Sets the time of the report in epoch milliseconds */
+	public void setRecordTime(long recordTime) {
+		this.recordTime = recordTime;
+	}
+
+    /** Returns the version of the stored state, -1 if unknown */
+	public long getVersion() {
+		return version;
+	}
+
+    /** Sets the version of the stored state */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+    /** Returns the number of spaces for a permit type */
+	public int getSpaces(PermitsTypes type) {
+		switch (type)
+		{
+			case RESERVED: return reserved;
+			case HANDICAPPED: return handicapped;
+			case COMMUTER: return commuter;
+			case RESIDENT: return resident;
+			case STAFF: return staff;
+			case VISITOR: return visitor;
+			default: return motorcycle;
+		}
+	}
+
+    /**
+     * Returns the permit types the lot accepts, as a PermitsTypes mask:
+     * every type it has spaces for, or every type if its spaces are not divided.
+     */
+	public int getPermitMask() {
+		int mask = 0;
+		for (PermitsTypes type : PermitsTypes.values())
+			if (getSpaces(type) > 0)
+				mask |= type.getBit();
+		return mask == 0 ? PermitsTypes.ALL : mask;
+	}
+
+    /** Tells whether the lot accepts a permit type */
+	public boolean accepts(PermitsTypes type) {
+		return type.in(getPermitMask());
 	}
 }
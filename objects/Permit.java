@@ -1,32 +1,57 @@
 package objects;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
 import java.util.Date;
 /**
  * File Name: Permit.java
  * UWF Parking App
  *
  * This class represents a user's permit.
- * Currently it is unused but will be considered
- * for full implementation in the next implementation.
+ * Permits are stored by PermitDBManager; a permit stops being
+ * active once the expiration sweeper finds it past its date.
+ * The expiration is kept as epoch milliseconds (the start of that day)
+ * and dates are parsed with one formatter shared by every permit.
  *
  * @author Will, Julien
  * @version 1.0
  */
 public class Permit
 {
+	/** expirationTime of a permit without an expiration date */
+	public static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+	/**
+	 * parses expiration dates; immutable, so every permit and thread shares it.
+	 * Like MM/dd/yy once did: leading zeros are optional, 4-digit years are taken
+	 * as they are and 2-digit years fall within 80 years before and 20 after today
+	 */
+	private static final DateTimeFormatter FORMATTER = new DateTimeFormatterBuilder()
+			.appendValue(ChronoField.MONTH_OF_YEAR, 1, 2, SignStyle.NOT_NEGATIVE)
+			.appendLiteral('/')
+			.appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NOT_NEGATIVE)
+			.appendLiteral('/')
+			.appendValueReduced(ChronoField.YEAR, 2, 4, LocalDate.now().minusYears(80))
+			.toFormatter();
+
+	/** expiration of a new permit, 01/01/01 */
+	private static final long DEFAULT_EXPIRATION = parse("01/01/01");
+
 	private String id;
 	private String type;
-	DateFormat formatter = new SimpleDateFormat("MM/dd/yy");
-	Date expirationDate;
+	private long expirationTime = NO_EXPIRATION;
+	private boolean active = true;
 
 	public Permit ()
     {
 		this.id = "00000";
 		this.type = "Commuter";
-		setExpirationDate("01/01/01");
+		this.expirationTime = DEFAULT_EXPIRATION;
 	}
 
 	public Permit (String id, String type, String date)
@@ -52,23 +77,57 @@ public class Permit
 		this.type = type;
 	}
 
+	/** Returns the expiration as a new Date, null if there is none */
 	public Date getExpirationDate() {
-		return expirationDate;
+		return expirationTime == NO_EXPIRATION ? null : new Date(expirationTime);
 	}
 
 	public void setExpirationDate(Date date) {
-		this.expirationDate = date;
+		this.expirationTime = date == null ? NO_EXPIRATION : date.getTime();
+	}
+
+	/** Returns the expiration in epoch milliseconds, NO_EXPIRATION if there is none */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	/** Sets the expiration in epoch milliseconds */
+	public void setExpirationTime(long expirationTime) {
+		this.expirationTime = expirationTime;
+	}
+
+	/** Returns whether the permit has not been expired by the sweeper */
+	public boolean isActive() {
+		return active;
+	}
+
+	/** Sets whether the permit is active */
+	public void setActive(boolean active) {
+		this.active = active;
 	}
 
 	public void setExpirationDate (String date)
+	{
+		long time = parse(date);
+		if (time != NO_EXPIRATION)
+			this.expirationTime = time;
+	}
+
+	/**
+	 * Parses an M/d/yy or M/d/yyyy date.
+	 * @param date the date
+	 * @return the start of that day in epoch milliseconds, NO_EXPIRATION if it cannot be parsed
+	 */
+	private static long parse (String date)
 	{
 		try
 		{
-			this.expirationDate = formatter.parse(date);
+			return LocalDate.parse(date.trim(), FORMATTER).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
 		}
-		catch (ParseException p)
+		catch (DateTimeParseException p)
 		{
 			System.out.println("exception in parsing date - Permit.java");
+			return NO_EXPIRATION;
 		}
 	}
 }
@@ -3,12 +3,76 @@ package objects;
  * File Name: PermitTypes.java
  * UWF Parking App
  *
- * This enum would hold the types of permits.
- * Shall be implemented in the next iteration.
+ * This enum holds the types of permits, one per kind of space in a
+ * ParkingLot. Each type has its own bit, so a set of types fits in
+ * an int mask and checking a type against a lot is one AND.
  *
  * @author Julien
  * @version 1.0
  */
 public enum PermitsTypes
 {
+	RESERVED("RESERVED"), HANDICAPPED("HANDICAPPED"), COMMUTER("COMMUTER"), RESIDENT("RESIDENT"),
+	STAFF("STAFF"), VISITOR("VISITOR"), MOTORCYCLE("MOTORCYCLE");
+
+	/** mask with every type's bit set */
+	public static final int ALL = (1 << values().length) - 1;
+
+	/** String associated with type */
+	private final String pString;
+
+	/** this type's bit in a mask */
+	private final int bit;
+
+	/**
+     * Sets the String to match.
+     */
+	PermitsTypes (String p)
+    {
+		this.pString = p;
+		this.bit = 1 << ordinal();
+	}
+
+	/** Returns the type as String */
+	public String getpString() {
+		return pString;
+	}
+
+	/** Returns this type's bit in a mask */
+	public int getBit() {
+		return bit;
+	}
+
+	/** Tells whether a mask holds this type */
+	public boolean in (int mask) {
+		return (mask & bit) != 0;
+	}
+
+	/**
+	 * Returns the mask holding the given types.
+	 * @param types the types
+	 * @return their bits ORed together
+	 */
+	public static int mask (PermitsTypes... types)
+	{
+		int mask = 0;
+		for (PermitsTypes t : types)
+			mask |= t.bit;
+		return mask;
+	}
+
+	/**
+	 * Returns the type matching a String, ignoring case.
+	 * @param type the type as stored on a Permit
+	 * @return the type, or null if there is no such type
+	 */
+	public static PermitsTypes fromString (String type)
+	{
+		if (type == null)
+			return null;
+		for (PermitsTypes t : values())
+			if (t.pString.equalsIgnoreCase(type.trim()))
+				return t;
+		return null;
+	}
 }
@@ -0,0 +1,272 @@
+package objects;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * File Name: SpaceMap.java
+ * UWF Parking App
+ *
+ * This class holds the stalls of one lot, one bit each, for lots whose
+ * stalls report on their own. Stall i is occupied when bit i of the
+ * occupied bitset is set, and belongs to the category whose bitset
+ * has bit i set; stalls of no category are general and take any permit.
+ * Taking or freeing a stall sets one bit; counting free stalls and
+ * finding the first free stall of a category work 64 stalls at a time.
+ * Stalls can be taken and freed from several threads at once.
+ * The map is saved as its bytes: the occupied bits and the category of
+ * each run of stalls, so a 2000-stall lot takes about 300 bytes.
+ *
+ * @author Julien
+ * @version 1.0
+ */
+public class SpaceMap
+{
+    /** version of the saved format */
+    private static final byte FORMAT = 1;
+
+    /** category number of general stalls */
+    private static final int GENERAL = PermitsTypes.values().length;
+
+    /** number of stalls */
+    private final int stalls;
+
+    /** the occupied stalls */
+    private final AtomicLongArray occupied;
+
+    /** the stalls of each category, by PermitsTypes ordinal, general stalls last; never changed */
+    private final long[][] categories;
+
+    /**
+     * Creates an empty map, laying out the lot's stalls category by
+     * category in PermitsTypes order, the rest of its total as general stalls.
+     * @param lot the lot with its number of spaces per category
+     */
+    public SpaceMap (ParkingLot lot)
+    {
+        int sum = 0;
+        for (PermitsTypes type : PermitsTypes.values())
+            sum += Math.max(0, lot.getSpaces(type));
+        this.stalls = Math.max(sum, lot.getTotal());
+        this.occupied = new AtomicLongArray(words(stalls));
+        this.categories = new long[GENERAL + 1][words(stalls)];
+        int next = 0;
+        for (PermitsTypes type : PermitsTypes.values())
+            for (int i = 0; i < Math.max(0, lot.getSpaces(type)); i++)
+                set(categories[type.ordinal()], next++);
+        while (next < stalls)
+            set(categories[GENERAL], next++);
+    }
+
+    /** Creates a map of a number of stalls, for reading a saved map */
+    private SpaceMap (int stalls)
+    {
+        this.stalls = stalls;
+        this.occupied = new AtomicLongArray(words(stalls));
+        this.categories = new long[GENERAL + 1][words(stalls)];
+    }
+
+    /**
+     * Takes a stall.
+     * @param stall number of the stall
+     * @return false if it was already taken
+     */
+    public boolean occupy (int stall)
+    {
+        check(stall);
+        int w = stall >>> 6;
+        long bit = 1L << stall;
+        long old;
+        do
+        {
+            old = occupied.get(w);
+            if ((old & bit) != 0)
+                return false;
+        }
+        while (!occupied.compareAndSet(w, old, old | bit));
+        return true;
+    }
+
+    /**
+     * Frees a stall.
+     * @param stall number of the stall
+     * @return false if it was already free
+     */
+    public boolean release (int stall)
+    {
+        check(stall);
+        int w = stall >>> 6;
+        long bit = 1L << stall;
+        long old;
+        do
+        {
+            old = occupied.get(w);
+            if ((old & bit) == 0)
+                return false;
+        }
+        while (!occupied.compareAndSet(w, old, old & ~bit));
+        return true;
+    }
+
+    /**
+     * Tells whether a stall is taken.
+     * @param stall number of the stall
+     * @return whether it is taken
+     */
+    public boolean isOccupied (int stall)
+    {
+        check(stall);
+        return (occupied.get(stall >>> 6) & (1L << stall)) != 0;
+    }
+
+    /**
+     * Returns a stall's category.
+     * @param stall number of the stall
+     * @return the category, or null for a general stall
+     */
+    public PermitsTypes getCategory (int stall)
+    {
+        check(stall);
+        for (PermitsTypes type : PermitsTypes.values())
+            if ((categories[type.ordinal()][stall >>> 6] & (1L << stall)) != 0)
+                return type;
+        return null;
+    }
+
+    /** Returns the number of taken stalls */
+    public int countOccupied ()
+    {
+        int count = 0;
+        for (int w = 0; w < occupied.length(); w++)
+            count += Long.bitCount(occupied.get(w));
+        return count;
+    }
+
+    /** Returns the number of free stalls */
+    public int countFree ()
+    {
+        return stalls - countOccupied();
+    }
+
+    /**
+     * Returns the number of free stalls a permit may use: those of its
+     * category and the general ones.
+     * @param type the permit's type
+     * @return the number of free stalls
+     */
+    public int countFree (PermitsTypes type)
+    {
+        long[] mine = categories[type.ordinal()];
+        long[] general = categories[GENERAL];
+        int count = 0;
+        for (int w = 0; w < mine.length; w++)
+            count += Long.bitCount((mine[w] | general[w]) & ~occupied.get(w));
+        return count;
+    }
+
+    /**
+     * Returns the first free stall a permit may use, one of its
+     * category if there is one, else a general one.
+     * @param type the permit's type
+     * @return the stall's number, or -1 if every stall it may use is taken
+     */
+    public int firstFree (PermitsTypes type)
+    {
+        int stall = firstFree(categories[type.ordinal()]);
+        return stall >= 0 ? stall : firstFree(categories[GENERAL]);
+    }
+
+    /** Returns the first free stall of a category bitset, -1 if there is none */
+    private int firstFree (long[] category)
+    {
+        for (int w = 0; w < category.length; w++)
+        {
+            long free = category[w] & ~occupied.get(w);
+            if (free != 0)
+                return w * 64 + Long.numberOfTrailingZeros(free);
+        }
+        return -1;
+    }
+
+    /** Returns the number of stalls */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Returns the map as bytes: format, number of stalls, the occupied
+     * words, then (category, length) runs covering every stall.
+     * @return the saved map
+     */
+    public byte[] toBytes ()
+    {
+        int words = occupied.length();
+        ByteBuffer runs = ByteBuffer.allocate(5 * (stalls + 1));
+        int start = 0;
+        while (start < stalls)
+        {
+            int category = category(start);
+            int end = start + 1;
+            while (end < stalls && category(end) == category)
+                end++;
+            runs.put((byte) category).putInt(end - start);
+            start = end;
+        }
+        runs.flip();
+        ByteBuffer out = ByteBuffer.allocate(1 + 4 + 8 * words + runs.remaining());
+        out.put(FORMAT).putInt(stalls);
+        for (int w = 0; w < words; w++)
+            out.putLong(occupied.get(w));
+        out.put(runs);
+        return out.array();
+    }
+
+    /**
+     * Reads a map saved by toBytes.
+     * @param bytes the saved map
+     * @return the map
+     */
+    public static SpaceMap fromBytes (byte[] bytes)
+    {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != FORMAT)
+            throw new IllegalArgumentException("unknown space map format");
+        SpaceMap map = new SpaceMap(in.getInt());
+        for (int w = 0; w < map.occupied.length(); w++)
+            map.occupied.set(w, in.getLong());
+        int next = 0;
+        while (in.hasRemaining())
+        {
+            int category = in.get();
+            int length = in.getInt();
+            for (int i = 0; i < length; i++)
+                set(map.categories[category], next++);
+        }
+        return map;
+    }
+
+    /** Returns the category number of a stall */
+    private int category (int stall)
+    {
+        PermitsTypes type = getCategory(stall);
+        return type == null ? GENERAL : type.ordinal();
+    }
+
+    /** Throws if a stall number is out of range */
+    private void check (int stall)
+    {
+        if (stall < 0 || stall >= stalls)
+            throw new IllegalArgumentException("no stall " + stall);
+    }
+
+    /** Sets a bit of a bitset */
+    private static void set (long[] bits, int i)
+    {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    /** Returns the number of words holding some bits */
+    private static int words (int bits)
+    {
+        return Math.max(1, (bits + 63) / 64);
+    }
+}
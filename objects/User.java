@@ -46,6 +46,21 @@ public class User
         this.permissions = UserPermissions.USER;
     }
 
+    /**
+     * Copy constructor, used to hand out cached users without sharing them.
+     * @param other user to copy
+     */
+    public User (User other)
+    {
+        this.name = other.name;
+        this.userID = other.userID;
+        this.permit = new Permit();
+        this.permit.setId(other.permit.getId());
+        this.permit.setType(other.permit.getType());
+        this.permit.setExpirationTime(other.permit.getExpirationTime());
+        this.permissions = other.permissions;
+    }
+
     /** Returns the username */
     public String getName() {
         return name;
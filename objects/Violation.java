@@ -5,23 +5,108 @@ import java.util.Date;
  * File Name: Violation.java
  * UWF Parking App
  *
- * This class represents a violation.
- * Shall be implemented in the next few iterations.
+ * This class represents a violation: a ticket written in a lot.
+ * Violations are stored in the Violation table by LotDBManager,
+ * which also adds them to their lot's violation count.
+ * A photo of the violation is kept in the BlobStore; the violation
+ * only holds its key.
  *
  * @author Julien
  * @version 1.0
  */
 public class Violation
 {
+    /** longest ID the Violation table holds */
+    public static final int MAX_ID = 36;
+
+    /** longest summary the Violation table holds */
+    public static final int MAX_SUMMARY = 100;
+
     private String violationID;
+    private String lotID;
     private String summary;
-    private Date recordDate;
+    private long recordTime;
+    private String photoHash;
 
     public Violation ()
     {
+        this.summary = "";
+        this.recordTime = System.currentTimeMillis();
     }
 
     public Violation (String summary)
     {
+        this.summary = summary;
+        this.recordTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Constructor used for a ticket written in a lot.
+     * @param violationID the ticket's number, or null to have one made when it is stored
+     * @param lotID name of the lot
+     * @param summary what the violation was
+     * @param recordTime when it was written, in epoch milliseconds
+     */
+    public Violation (String violationID, String lotID, String summary, long recordTime)
+    {
+        this.violationID = violationID;
+        this.lotID = lotID;
+        this.summary = summary;
+        this.recordTime = recordTime;
+    }
+
+    /** Returns the violation's ID */
+    public String getViolationID() {
+        return violationID;
+    }
+
+    /** Sets the violation's ID */
+    public void setViolationID(String violationID) {
+        this.violationID = violationID;
+    }
+
+    /** Returns the name of the lot */
+    public String getLotID() {
+        return lotID;
+    }
+
+    /** Sets the name of the lot */
+    public void setLotID(String lotID) {
+        this.lotID = lotID;
+    }
+
+    /** Returns the summary */
+    public String getSummary() {
+        return summary;
+    }
+
+    /** Sets the summary */
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    /** Returns the date the violation was written as a new Date */
+    public Date getRecordDate() {
+        return new Date(recordTime);
+    }
+
+    /** Returns the time the violation was written in epoch milliseconds */
+    public long getRecordTime() {
+        return recordTime;
+    }
+
+    /** Sets the time the violation was written in epoch milliseconds */
+    public void setRecordTime(long recordTime) {
+        this.recordTime = recordTime;
+    }
+
+    /** Returns the BlobStore key of the photo, null if there is none */
+    public String getPhotoHash() {
+        return photoHash;
+    }
+
+    /** Sets the BlobStore key of the photo */
+    public void setPhotoHash(String photoHash) {
+        this.photoHash = photoHash;
     }
 }